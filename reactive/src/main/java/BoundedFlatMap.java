@@ -0,0 +1,135 @@
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.Iterator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/*
+ * Maps each input pulled from an iterator to a publisher and subscribes to at most 'maxInFlight' of them at a time.
+ * Inputs are only pulled when a slot frees up, so a lazy source (like SyntheticCorpus) is never read ahead of what
+ * the server accepts, and no thread blocks while operations are in flight except the one waiting in run().
+ */
+class BoundedFlatMap<I, O> {
+    interface Mapper<I, O> {
+        Publisher<O> apply (I input);
+    }
+
+    /* Receives results as they arrive, on driver threads. Throwing stops the pipeline and fails run(). */
+    interface Handler<I, O> {
+        void onNext (I input, O output);
+
+        void onError (I input, Throwable error);
+    }
+
+    private final Iterator<I> source;
+    private final Mapper<I, O> mapper;
+    private final Handler<I, O> handler;
+    private final int maxInFlight;
+
+    private int inFlight;
+    private boolean finished;
+    private final AtomicInteger wip = new AtomicInteger();
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    BoundedFlatMap (Iterator<I> source, Mapper<I, O> mapper, Handler<I, O> handler, int maxInFlight) {
+        this.source = source;
+        this.mapper = mapper;
+        this.handler = handler;
+        this.maxInFlight = maxInFlight;
+    }
+
+    /* Process every input, returning once all publishers have completed, or rethrowing the first failure. */
+    void run () throws InterruptedException {
+        drain();
+        done.await();
+        Publishers.rethrow(failure.get());
+    }
+
+    /* Subscribe to as many new publishers as there are free slots. Only one thread drains at a time. */
+    private void drain () {
+        if (wip.getAndIncrement() != 0) {
+            return;
+        }
+        do {
+            while (true) {
+                I input;
+                synchronized (this) {
+                    if (failure.get() != null || inFlight >= maxInFlight || !source.hasNext()) {
+                        break;
+                    }
+                    input = source.next();
+                    inFlight++;
+                }
+                Publisher<O> publisher;
+                try {
+                    publisher = mapper.apply(input);
+                } catch (RuntimeException | Error e) {
+                    fail(e);
+                    synchronized (this) {
+                        inFlight--;
+                    }
+                    break;
+                }
+                publisher.subscribe(new Inner(input));
+            }
+            synchronized (this) {
+                if (!finished && inFlight == 0 && (failure.get() != null || !source.hasNext())) {
+                    finished = true;
+                    done.countDown();
+                }
+            }
+        } while (wip.decrementAndGet() != 0);
+    }
+
+    private void fail (Throwable throwable) {
+        failure.compareAndSet(null, throwable);
+    }
+
+    private void release () {
+        synchronized (this) {
+            inFlight--;
+        }
+        drain();
+    }
+
+    private class Inner implements Subscriber<O> {
+        private final I input;
+
+        Inner (I input) {
+            this.input = input;
+        }
+
+        @Override
+        public void onSubscribe (Subscription subscription) {
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext (O output) {
+            try {
+                handler.onNext(input, output);
+            } catch (RuntimeException | Error e) {
+                fail(e);
+            }
+        }
+
+        @Override
+        public void onError (Throwable error) {
+            try {
+                handler.onError(input, error);
+            } catch (RuntimeException | Error e) {
+                fail(e);
+            }
+            release();
+        }
+
+        @Override
+        public void onComplete () {
+            release();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/* Blocking helpers for setup and verification steps, where waiting on the calling thread is fine. */
+class Publishers {
+    /* Every item 'publisher' emits, rethrowing its error if it fails. */
+    static <T> List<T> collect (Publisher<T> publisher) {
+        final List<T> items = new ArrayList<>();
+        final Throwable[] error = new Throwable[1];
+        final CountDownLatch done = new CountDownLatch(1);
+        publisher.subscribe(new Subscriber<T>() {
+            @Override
+            public void onSubscribe (Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext (T item) {
+                synchronized (items) {
+                    items.add(item);
+                }
+            }
+
+            @Override
+            public void onError (Throwable throwable) {
+                error[0] = throwable;
+                done.countDown();
+            }
+
+            @Override
+            public void onComplete () {
+                done.countDown();
+            }
+        });
+        try {
+            done.await();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ie);
+        }
+        rethrow(error[0]);
+        synchronized (items) {
+            return items;
+        }
+    }
+
+    /* The first item 'publisher' emits, or null if it emits none. */
+    static <T> T first (Publisher<T> publisher) {
+        List<T> items = collect(publisher);
+        return items.isEmpty() ? null : items.get(0);
+    }
+
+    static void rethrow (Throwable throwable) {
+        if (throwable instanceof RuntimeException) {
+            throw (RuntimeException) throwable;
+        }
+        if (throwable instanceof Error) {
+            throw (Error) throwable;
+        }
+        if (throwable != null) {
+            throw new RuntimeException(throwable);
+        }
+    }
+}
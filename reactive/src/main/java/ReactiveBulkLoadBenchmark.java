@@ -0,0 +1,217 @@
+import com.mongodb.AutoEncryptionSettings;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.connection.AsynchronousSocketChannelStreamFactoryFactory;
+import com.mongodb.reactivestreams.client.MongoClients;
+import com.mongodb.reactivestreams.client.Success;
+import org.bson.*;
+import org.reactivestreams.Publisher;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.channels.AsynchronousChannelGroup;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * The BulkLoadTest load path, run on the sync driver with T threads each blocking in insertMany, and on the
+ * reactive streams driver with T batches in flight and T I/O threads. Both use a local schemaMap and local KMS.
+ * CPU is this process's CPU time (mongocryptd runs in its own process and is not counted), so
+ * docs per CPU second is the encryption path's throughput per core.
+ */
+public class ReactiveBulkLoadBenchmark {
+    private final int[] threadCounts;
+    private final long docCount;
+    private final int batchSize;
+    private final int valueSize;
+    private final BsonDocument corpus = Util.bsonDocumentFromPath("./corpus/corpus.json");
+    private final BsonDocument schema = Util.rawBsonDocumentFromPath("./corpus/corpus-schema.json");
+
+    ReactiveBulkLoadBenchmark (int[] threadCounts, long docCount, int batchSize, int valueSize) {
+        this.threadCounts = threadCounts;
+        this.docCount = docCount;
+        this.batchSize = batchSize;
+        this.valueSize = valueSize;
+    }
+
+    /* Batches of 'batchSize' documents from a SyntheticCorpus. Not thread safe. */
+    private static class Batches implements Iterator<List<RawBsonDocument>> {
+        private final SyntheticCorpus source;
+        private final int batchSize;
+
+        Batches (SyntheticCorpus source, int batchSize) {
+            this.source = source;
+            this.batchSize = batchSize;
+        }
+
+        @Override
+        public boolean hasNext () {
+            return source.hasNext();
+        }
+
+        @Override
+        public List<RawBsonDocument> next () {
+            List<RawBsonDocument> batch = new ArrayList<>(batchSize);
+            while (batch.size() < batchSize && source.hasNext()) {
+                batch.add(source.next());
+            }
+            return batch;
+        }
+    }
+
+    private Batches batches () {
+        return new Batches(new SyntheticCorpus(corpus, schema, Collections.singleton("local"), docCount, valueSize, 42),
+                batchSize);
+    }
+
+    private AutoEncryptionSettings autoEncryptionSettings () {
+        Map<String, BsonDocument> schemaMap = new HashMap<>();
+        schemaMap.put("db.coll", schema);
+        return AutoEncryptionSettings.builder()
+                .keyVaultNamespace("admin.datakeys")
+                .kmsProviders(Util.localKmsProviders())
+                .schemaMap(schemaMap)
+                .build();
+    }
+
+    /* Drop db.coll and recreate admin.datakeys with the local key. */
+    private void reset () {
+        com.mongodb.client.MongoClient client = com.mongodb.client.MongoClients.create(
+                MongoClientSettings.builder().codecRegistry(Fixtures.CODEC_REGISTRY).build());
+        client.getDatabase("db").getCollection("coll").drop();
+        Util.resetKeyVault(client, "admin.datakeys", "./corpus/corpus-key-local.json");
+        client.close();
+    }
+
+    private long countInserted () {
+        com.mongodb.client.MongoClient client = com.mongodb.client.MongoClients.create();
+        long count = client.getDatabase("db").getCollection("coll").countDocuments();
+        client.close();
+        return count;
+    }
+
+    private void loadSync (int threads) throws InterruptedException {
+        final com.mongodb.client.MongoClient client_encrypted = com.mongodb.client.MongoClients.create(
+                MongoClientSettings.builder()
+                        .codecRegistry(Fixtures.CODEC_REGISTRY)
+                        .autoEncryptionSettings(autoEncryptionSettings())
+                        .build());
+        final com.mongodb.client.MongoCollection<RawBsonDocument> coll_encrypted = client_encrypted.getDatabase("db")
+                .getCollection("coll", RawBsonDocument.class);
+        final Batches batches = batches();
+        final AtomicLong inserted = new AtomicLong();
+        final Throwable[] error = new Throwable[1];
+        Measurement measurement = new Measurement();
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Thread(new Runnable() {
+                @Override
+                public void run () {
+                    try {
+                        while (true) {
+                            List<RawBsonDocument> batch;
+                            synchronized (batches) {
+                                if (!batches.hasNext()) {
+                                    return;
+                                }
+                                batch = batches.next();
+                            }
+                            coll_encrypted.insertMany(batch);
+                            inserted.addAndGet(batch.size());
+                        }
+                    } catch (RuntimeException e) {
+                        synchronized (error) {
+                            error[0] = e;
+                        }
+                    }
+                }
+            });
+            workers[i].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        measurement.stop("sync", threads, inserted.get());
+        client_encrypted.close();
+        Publishers.rethrow(error[0]);
+    }
+
+    private void loadReactive (int threads) throws InterruptedException, IOException {
+        AsynchronousChannelGroup group = AsynchronousChannelGroup.withFixedThreadPool(threads, Executors.defaultThreadFactory());
+        com.mongodb.reactivestreams.client.MongoClient client_encrypted = MongoClients.create(MongoClientSettings.builder()
+                .codecRegistry(Fixtures.CODEC_REGISTRY)
+                .autoEncryptionSettings(autoEncryptionSettings())
+                .streamFactoryFactory(AsynchronousSocketChannelStreamFactoryFactory.builder().group(group).build())
+                .build());
+        final com.mongodb.reactivestreams.client.MongoCollection<RawBsonDocument> coll_encrypted = client_encrypted
+                .getDatabase("db").getCollection("coll", RawBsonDocument.class);
+        final AtomicLong inserted = new AtomicLong();
+        Measurement measurement = new Measurement();
+        new BoundedFlatMap<>(batches(), new BoundedFlatMap.Mapper<List<RawBsonDocument>, Success>() {
+            @Override
+            public Publisher<Success> apply (List<RawBsonDocument> batch) {
+                return coll_encrypted.insertMany(batch);
+            }
+        }, new BoundedFlatMap.Handler<List<RawBsonDocument>, Success>() {
+            @Override
+            public void onNext (List<RawBsonDocument> batch, Success success) {
+                inserted.addAndGet(batch.size());
+            }
+
+            @Override
+            public void onError (List<RawBsonDocument> batch, Throwable error) {
+                Publishers.rethrow(error);
+            }
+        }, threads).run();
+        measurement.stop("reactive", threads, inserted.get());
+        client_encrypted.close();
+        group.shutdownNow();
+        group.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    /* Wall time, process CPU time and peak thread count from construction to stop(). */
+    private class Measurement {
+        private final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        private final com.sun.management.OperatingSystemMXBean osBean =
+                (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+        private final long startNanos;
+        private final long startCpuNanos;
+
+        Measurement () {
+            threadBean.resetPeakThreadCount();
+            startCpuNanos = osBean.getProcessCpuTime();
+            startNanos = System.nanoTime();
+        }
+
+        void stop (String driver, int threads, long docs) {
+            double seconds = (System.nanoTime() - startNanos) / 1e9;
+            double cpuSeconds = (osBean.getProcessCpuTime() - startCpuNanos) / 1e9;
+            System.out.println(String.format(
+                    "%-8s threads %3d: %8.0f docs/s, %6.2f cpu s / %6.2f wall s (%.2f cores), %8.0f docs per cpu s, peak threads %d",
+                    driver, threads, docs / seconds, cpuSeconds, seconds, cpuSeconds / seconds, docs / cpuSeconds,
+                    threadBean.getPeakThreadCount()));
+            Util.doAssert(docs == docCount);
+            Util.doAssert(countInserted() == docCount);
+        }
+    }
+
+    private void run () throws InterruptedException, IOException {
+        System.out.println(String.format("%d docs, batch size %d, value size %d, %d available processors",
+                docCount, batchSize, valueSize, Runtime.getRuntime().availableProcessors()));
+        for (int threads : threadCounts) {
+            reset();
+            loadSync(threads);
+            reset();
+            loadReactive(threads);
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException, IOException {
+        new ReactiveBulkLoadBenchmark(Util.intsFromEnv("REACTIVE_BENCH_THREADS", "1,2,4,8,16"),
+                Util.intFromEnv("REACTIVE_BENCH_DOCS", 50000),
+                Util.intFromEnv("REACTIVE_BENCH_BATCH_SIZE", 100),
+                Util.intFromEnv("REACTIVE_BENCH_VALUE_SIZE", 8)).run();
+    }
+}
@@ -0,0 +1,205 @@
+import com.mongodb.AutoEncryptionSettings;
+import com.mongodb.ClientEncryptionSettings;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.reactivestreams.client.MongoClient;
+import com.mongodb.reactivestreams.client.MongoClients;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import com.mongodb.reactivestreams.client.MongoDatabase;
+import com.mongodb.reactivestreams.client.vault.ClientEncryption;
+import com.mongodb.reactivestreams.client.vault.ClientEncryptions;
+import org.bson.*;
+import org.reactivestreams.Publisher;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * The CorpusRunner flow on the reactive streams driver. The explicit encryptions of Step 5 and the decryptions of
+ * Step 8 are pipelined through BoundedFlatMap with at most REACTIVE_CONCURRENCY in flight, instead of one blocking
+ * call per field.
+ */
+public class ReactiveCorpusRunner {
+    private final int concurrency;
+    private final BsonDocument corpus = Util.bsonDocumentFromPath("./corpus/corpus.json");
+    private final EncryptionPolicy policy = EncryptionPolicy.fromCorpus(corpus);
+    private final CorpusModel model = new CorpusModel(corpus);
+
+    ReactiveCorpusRunner (int concurrency) {
+        this.concurrency = concurrency;
+    }
+
+    private static Map<String, Map<String, Object>> kmsProviders () {
+        if (System.getenv("AWS_ACCESS_KEY_ID") == null || System.getenv("AWS_SECRET_ACCESS_KEY") == null) {
+            throw new IllegalArgumentException("no aws creds set");
+        }
+        Map<String, Map<String, Object>> kmsProviders = Util.localKmsProviders();
+        Map<String, Object> awsCreds = new HashMap<>();
+        awsCreds.put("accessKeyId", System.getenv("AWS_ACCESS_KEY_ID"));
+        awsCreds.put("secretAccessKey", System.getenv("AWS_SECRET_ACCESS_KEY"));
+        kmsProviders.put("aws", awsCreds);
+        return kmsProviders;
+    }
+
+    /* Explicitly encrypted corpus fields mapped to their ciphertext, or to null where encrypt failed. */
+    private Map<String, BsonValue> encryptExplicit (final ClientEncryption clientEncryption) throws InterruptedException {
+        List<CorpusModel.Field> fields = new ArrayList<>();
+        for (CorpusModel.Field field : model.fields()) {
+            if (field.method == CorpusModel.Method.EXPLICIT) {
+                fields.add(field);
+            }
+        }
+        final Map<String, BsonValue> encrypted = new ConcurrentHashMap<>();
+        final Set<String> failed = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        new BoundedFlatMap<>(fields.iterator(), new BoundedFlatMap.Mapper<CorpusModel.Field, BsonBinary>() {
+            @Override
+            public Publisher<BsonBinary> apply (CorpusModel.Field field) {
+                return clientEncryption.encrypt(field.value, field.options);
+            }
+        }, new BoundedFlatMap.Handler<CorpusModel.Field, BsonBinary>() {
+            @Override
+            public void onNext (CorpusModel.Field field, BsonBinary ciphertext) {
+                encrypted.put(field.name, ciphertext);
+            }
+
+            @Override
+            public void onError (CorpusModel.Field field, Throwable error) {
+                failed.add(field.name);
+            }
+        }, concurrency).run();
+
+        Map<String, BsonValue> results = new HashMap<>();
+        for (CorpusModel.Field field : fields) {
+            boolean threw = failed.contains(field.name);
+            /* An exception is thrown if-and-only-if the method is prohibited, as the policy table predicts. */
+            Util.doAssert(threw == !field.allowed);
+            Util.doAssert(policy.allows(field.value, field.algo.algorithm) == !threw);
+            results.put(field.name, threw ? null : encrypted.get(field.name));
+        }
+        return results;
+    }
+
+    private void corpusTest (boolean useLocalSchema) throws InterruptedException {
+        MongoClientSettings clientSettings = MongoClientSettings.builder().codecRegistry(Fixtures.CODEC_REGISTRY).build();
+
+        /* Steps 1 to 3: recreate db.coll (with the schema as validator unless it is local) and admin.datakeys. */
+        MongoClient client = MongoClients.create(clientSettings);
+        MongoDatabase db = client.getDatabase("db");
+        Publishers.collect(db.getCollection("coll").drop());
+        BsonDocument schema = Util.rawBsonDocumentFromPath("./corpus/corpus-schema.json");
+        BsonDocument createCmd = new BsonDocument("create", new BsonString("coll"));
+        if (!useLocalSchema) {
+            createCmd.append("validator", new BsonDocument("$jsonSchema", schema));
+        }
+        Publishers.collect(db.runCommand(createCmd));
+        MongoCollection<BsonDocument> datakeys = client.getDatabase("admin").getCollection("datakeys", BsonDocument.class);
+        Publishers.collect(datakeys.drop());
+        Publishers.collect(datakeys.insertMany(Arrays.<BsonDocument>asList(
+                Util.rawBsonDocumentFromPath("./corpus/corpus-key-aws.json"),
+                Util.rawBsonDocumentFromPath("./corpus/corpus-key-local.json"))));
+
+        /* Step 4: the auto-encrypting client and ClientEncryption. */
+        Map<String, BsonDocument> schemaMap = new HashMap<>();
+        schemaMap.put("db.coll", schema);
+        AutoEncryptionSettings.Builder autoEncryptionSettingsBuilder = AutoEncryptionSettings.builder()
+                .keyVaultNamespace("admin.datakeys")
+                .kmsProviders(kmsProviders());
+        if (useLocalSchema) {
+            autoEncryptionSettingsBuilder.schemaMap(schemaMap);
+        }
+        MongoClient client_encrypted = MongoClients.create(MongoClientSettings.builder()
+                .codecRegistry(Fixtures.CODEC_REGISTRY)
+                .autoEncryptionSettings(autoEncryptionSettingsBuilder.build())
+                .build());
+        ClientEncryption client_encryption = ClientEncryptions.create(ClientEncryptionSettings.builder()
+                .keyVaultMongoClientSettings(clientSettings)
+                .kmsProviders(kmsProviders())
+                .keyVaultNamespace("admin.datakeys")
+                .build());
+
+        /* Step 5: copy the corpus, encrypting the explicit fields concurrently. */
+        long start = System.nanoTime();
+        Map<String, BsonValue> encrypted = encryptExplicit(client_encryption);
+        double encryptMillis = (System.nanoTime() - start) / 1e6;
+        BsonDocument corpus_copied = new BsonDocument();
+        for (Map.Entry<String, BsonValue> entry : corpus.entrySet()) {
+            BsonValue ciphertext = encrypted.get(entry.getKey());
+            if (ciphertext == null) {
+                corpus_copied.append(entry.getKey(), entry.getValue());
+            } else {
+                corpus_copied.append(entry.getKey(), entry.getValue().asDocument().clone().append("value", ciphertext));
+            }
+        }
+
+        /* Steps 6 and 7: insert it, and check the automatically decrypted document. */
+        MongoCollection<BsonDocument> coll_encrypted = client_encrypted.getDatabase("db").getCollection("coll", BsonDocument.class);
+        Publishers.collect(coll_encrypted.insertOne(corpus_copied));
+        List<String> failures = new ArrayList<>();
+        BsonDocument corpus_decrypted = Publishers.first(coll_encrypted.find().first());
+        if (!corpus.equals(corpus_decrypted)) {
+            failures.add("decrypted document does not match corpus");
+        }
+
+        /* Step 8: check the stored ciphertexts, decrypting the allowed fields concurrently. */
+        BsonDocument corpus_encrypted_actual = Publishers.first(client.getDatabase("db")
+                .getCollection("coll", BsonDocument.class).find().first());
+        CorpusIndex corpus_encrypted_expected = new CorpusIndex(Util.rawBsonDocumentFromPath("./corpus/corpus-encrypted.json"));
+        final List<Map.Entry<CorpusModel.Field, BsonBinary>> toDecrypt = new ArrayList<>();
+        for (Map.Entry<String, BsonValue> entry : corpus_encrypted_actual.entrySet()) {
+            CorpusModel.Field field = model.field(entry.getKey());
+            if (field == null) {
+                continue;
+            }
+            BsonValue value = entry.getValue().asDocument().get("value");
+            if (field.algo == CorpusModel.Algo.DET) {
+                corpus_encrypted_expected.deterministicCheck(field, value, failures);
+            }
+            if (field.algo == CorpusModel.Algo.RAND && field.allowed) {
+                corpus_encrypted_expected.randomCheck(field.name, value, failures);
+            }
+            if (field.allowed) {
+                toDecrypt.add(new AbstractMap.SimpleImmutableEntry<>(field, value.asBinary()));
+            } else if (!value.equals(field.value)) {
+                failures.add(field.name + ": prohibited value was modified");
+            }
+        }
+        final ClientEncryption decryptor = client_encryption;
+        final List<String> decryptFailures = Collections.synchronizedList(new ArrayList<String>());
+        start = System.nanoTime();
+        new BoundedFlatMap<>(toDecrypt.iterator(), new BoundedFlatMap.Mapper<Map.Entry<CorpusModel.Field, BsonBinary>, BsonValue>() {
+            @Override
+            public Publisher<BsonValue> apply (Map.Entry<CorpusModel.Field, BsonBinary> field) {
+                return decryptor.decrypt(field.getValue());
+            }
+        }, new BoundedFlatMap.Handler<Map.Entry<CorpusModel.Field, BsonBinary>, BsonValue>() {
+            @Override
+            public void onNext (Map.Entry<CorpusModel.Field, BsonBinary> field, BsonValue decrypted) {
+                if (!decrypted.equals(field.getKey().value)) {
+                    decryptFailures.add(field.getKey().name + ": decrypted value does not match corpus");
+                }
+            }
+
+            @Override
+            public void onError (Map.Entry<CorpusModel.Field, BsonBinary> field, Throwable error) {
+                decryptFailures.add(field.getKey().name + ": " + error);
+            }
+        }, concurrency).run();
+        double decryptMillis = (System.nanoTime() - start) / 1e6;
+        failures.addAll(decryptFailures);
+
+        System.out.println(String.format("%s schema: %d explicit encrypts in %.1f ms, %d decrypts in %.1f ms, concurrency %d",
+                useLocalSchema ? "local" : "server", encrypted.size(), encryptMillis, toDecrypt.size(), decryptMillis, concurrency));
+        for (String failure : failures) {
+            System.out.println(failure);
+        }
+        client_encryption.close();
+        client_encrypted.close();
+        client.close();
+        Util.doAssert(failures.isEmpty());
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        ReactiveCorpusRunner runner = new ReactiveCorpusRunner(Util.intFromEnv("REACTIVE_CONCURRENCY", 16));
+        runner.corpusTest(false);
+        runner.corpusTest(true);
+    }
+}
@@ -0,0 +1,114 @@
+package benchmarks;
+
+import com.mongodb.ClientEncryptionSettings;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.model.vault.EncryptOptions;
+import com.mongodb.client.vault.ClientEncryption;
+import com.mongodb.client.vault.ClientEncryptions;
+import org.bson.BsonBinary;
+import org.bson.BsonBinarySubType;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Explicit encrypt/decrypt cost for every allowed (type, algo) pair of the local KMS corpus fields.
+ * Requires a mongod on localhost and LOCAL_MASTERKEY. Run with: gradle jmh
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ClientEncryptionBenchmark {
+    /* Allowed "local_<type>_<algo>_explicit_id" fields of corpus.json. */
+    @Param({"local_double_rand_explicit_id", "local_string_rand_explicit_id", "local_string_det_explicit_id",
+            "local_object_rand_explicit_id", "local_array_rand_explicit_id",
+            "local_binData=00_rand_explicit_id", "local_binData=00_det_explicit_id",
+            "local_binData=04_rand_explicit_id", "local_binData=04_det_explicit_id",
+            "local_objectId_rand_explicit_id", "local_objectId_det_explicit_id",
+            "local_bool_rand_explicit_id", "local_date_rand_explicit_id", "local_date_det_explicit_id",
+            "local_regex_rand_explicit_id", "local_regex_det_explicit_id",
+            "local_dbPointer_rand_explicit_id", "local_dbPointer_det_explicit_id",
+            "local_javascript_rand_explicit_id", "local_javascript_det_explicit_id",
+            "local_symbol_rand_explicit_id", "local_symbol_det_explicit_id",
+            "local_javascriptWithScope_rand_explicit_id",
+            "local_int_rand_explicit_id", "local_int_det_explicit_id",
+            "local_timestamp_rand_explicit_id", "local_timestamp_det_explicit_id",
+            "local_long_rand_explicit_id", "local_long_det_explicit_id",
+            "local_decimal_rand_explicit_id"})
+    public String field;
+
+    private MongoClient client;
+    private ClientEncryption clientEncryption;
+    private BsonValue value;
+    private EncryptOptions opts;
+    private BsonBinary ciphertext;
+
+    /* JMH benchmarks cannot live in the default package, so this cannot share Util. */
+    private static BsonDocument bsonDocumentFromPath (String path) throws IOException {
+        return BsonDocument.parse(new String(Files.readAllBytes(Paths.get(path)), StandardCharsets.UTF_8));
+    }
+
+    @Setup(Level.Trial)
+    public void setup () throws IOException {
+        if (System.getenv("LOCAL_MASTERKEY") == null) {
+            throw new IllegalArgumentException("no local masterkey set");
+        }
+        Map<String, Object> localMasterkey = new HashMap<>();
+        localMasterkey.put("key", Base64.getDecoder().decode(System.getenv("LOCAL_MASTERKEY")));
+        Map<String, Map<String, Object>> kmsProviders = new HashMap<>();
+        kmsProviders.put("local", localMasterkey);
+
+        /* Seed admin.datakeys with the local corpus key. */
+        client = MongoClients.create();
+        client.getDatabase("admin").getCollection("datakeys", BsonDocument.class).drop();
+        client.getDatabase("admin").getCollection("datakeys", BsonDocument.class)
+                .insertOne(bsonDocumentFromPath("./corpus/corpus-key-local.json"));
+
+        ClientEncryptionSettings clientEncryptionSettings = ClientEncryptionSettings.builder()
+                .keyVaultMongoClientSettings(MongoClientSettings.builder().build())
+                .kmsProviders(kmsProviders)
+                .keyVaultNamespace("admin.datakeys")
+                .build();
+        clientEncryption = ClientEncryptions.create(clientEncryptionSettings);
+
+        BsonDocument subdoc = bsonDocumentFromPath("./corpus/corpus.json").getDocument(field);
+        String algo_full = "AEAD_AES_256_CBC_HMAC_SHA_512-";
+        if (subdoc.getString("algo").getValue().equals("rand")) algo_full += "Random";
+        if (subdoc.getString("algo").getValue().equals("det")) algo_full += "Deterministic";
+
+        value = subdoc.get("value");
+        opts = new EncryptOptions(algo_full).keyId(new BsonBinary(BsonBinarySubType.UUID_STANDARD,
+                Base64.getDecoder().decode("LOCALAAAAAAAAAAAAAAAAA==")));
+        ciphertext = clientEncryption.encrypt(value, opts);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown () {
+        clientEncryption.close();
+        client.close();
+    }
+
+    @Benchmark
+    public BsonBinary encrypt () {
+        return clientEncryption.encrypt(value, opts);
+    }
+
+    @Benchmark
+    public BsonValue decrypt () {
+        return clientEncryption.decrypt(ciphertext);
+    }
+}
@@ -0,0 +1,42 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Time and allocation per pass of the corpus copy and verify loops, with the old per-field extraction and with
+ * CorpusModel. No server is needed. Allocation comes from the gc profiler the jmh block enables:
+ * gc.alloc.rate.norm is bytes allocated per pass. Run with: gradle jmh
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CorpusLoopBenchmark {
+    @Param({"legacy", "compiled"})
+    public String extraction;
+
+    @Param({"copy", "verify"})
+    public String loop;
+
+    private Callable<Object> workload;
+
+    /* JMH benchmarks cannot live in the default package, so the loops are looked up by name. */
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void setup () throws Exception {
+        Method method = Class.forName("CorpusLoops").getDeclaredMethod("workload", String.class, String.class);
+        method.setAccessible(true);
+        workload = (Callable<Object>) method.invoke(null, extraction, loop);
+    }
+
+    @Benchmark
+    public Object pass () throws Exception {
+        return workload.call();
+    }
+}
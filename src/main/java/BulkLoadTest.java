@@ -0,0 +1,101 @@
+import com.mongodb.AutoEncryptionSettings;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import org.bson.*;
+import org.bson.codecs.UuidCodec;
+import org.bson.codecs.configuration.CodecRegistry;
+
+import java.util.*;
+
+import static org.bson.codecs.configuration.CodecRegistries.fromCodecs;
+import static org.bson.codecs.configuration.CodecRegistries.fromRegistries;
+
+/*
+ * Streams synthetic corpus documents through an auto-encrypting client with batched insertMany and reports
+ * throughput, once with the server-side schema and once with a local schemaMap.
+ * Only the local KMS fields are generated, so no AWS credentials are needed.
+ */
+public class BulkLoadTest {
+    private final long docCount;
+    private final int batchSize;
+    private final int valueSize;
+
+    BulkLoadTest (long docCount, int batchSize, int valueSize) {
+        this.docCount = docCount;
+        this.batchSize = batchSize;
+        this.valueSize = valueSize;
+    }
+
+    private void load (boolean useLocalSchema) {
+        CodecRegistry codecRegistry = fromRegistries(
+                fromCodecs(new UuidCodec(UuidRepresentation.STANDARD)), MongoClientSettings.getDefaultCodecRegistry());
+        MongoClientSettings clientSettings = MongoClientSettings.builder().codecRegistry(codecRegistry).build();
+
+        /* Recreate db.coll with the corpus schema and admin.datakeys with the local key. */
+        MongoClient client = MongoClients.create(clientSettings);
+        MongoDatabase db = client.getDatabase("db");
+        db.getCollection("coll").drop();
+        BsonDocument schema = Util.rawBsonDocumentFromPath("./corpus/corpus-schema.json");
+        db.runCommand(new BsonDocument("create", new BsonString("coll"))
+                .append("validator", new BsonDocument("$jsonSchema", schema)));
+        Util.resetKeyVault(client, "admin.datakeys", "./corpus/corpus-key-local.json");
+
+        AutoEncryptionSettings.Builder autoEncryptionSettingsBuilder = AutoEncryptionSettings.builder()
+                .keyVaultNamespace("admin.datakeys")
+                .kmsProviders(Util.localKmsProviders());
+        if (useLocalSchema) {
+            Map<String, BsonDocument> schemaMap = new HashMap<>();
+            schemaMap.put("db.coll", schema);
+            autoEncryptionSettingsBuilder.schemaMap(schemaMap);
+        }
+        MongoClient client_encrypted = MongoClients.create(MongoClientSettings.builder()
+                .codecRegistry(codecRegistry)
+                .autoEncryptionSettings(autoEncryptionSettingsBuilder.build())
+                .build());
+        MongoCollection<RawBsonDocument> coll_encrypted = client_encrypted.getDatabase("db")
+                .getCollection("coll", RawBsonDocument.class);
+
+        SyntheticCorpus corpus = new SyntheticCorpus(Util.bsonDocumentFromPath("./corpus/corpus.json"), schema,
+                Collections.singleton("local"), docCount, valueSize, 42);
+        List<RawBsonDocument> batch = new ArrayList<>(batchSize);
+        long docs = 0, bytes = 0, insertNanos = 0;
+        long start = System.nanoTime();
+        while (corpus.hasNext()) {
+            RawBsonDocument doc = corpus.next();
+            bytes += doc.getByteBuffer().remaining();
+            batch.add(doc);
+            if (batch.size() == batchSize || !corpus.hasNext()) {
+                long batchStart = System.nanoTime();
+                coll_encrypted.insertMany(batch);
+                insertNanos += System.nanoTime() - batchStart;
+                docs += batch.size();
+                batch.clear();
+            }
+        }
+        long wallNanos = System.nanoTime() - start;
+
+        Util.doAssert(client.getDatabase("db").getCollection("coll").countDocuments() == docs);
+        double insertSeconds = insertNanos / 1e9;
+        System.out.println(String.format(
+                "%s schema: %d docs x %d encrypted fields, batch size %d: %.0f docs/s, %.2f MB/s plaintext (%.2f s inserting, %.2f s wall)",
+                useLocalSchema ? "local" : "server", docs, corpus.fieldCount(), batchSize,
+                docs / insertSeconds, bytes / insertSeconds / 1e6, insertSeconds, wallNanos / 1e9));
+
+        client_encrypted.close();
+        client.close();
+    }
+
+    private void run () {
+        load(false);
+        load(true);
+    }
+
+    public static void main(String[] args) {
+        new BulkLoadTest(Util.intFromEnv("BULK_DOCS", 100000),
+                Util.intFromEnv("BULK_BATCH_SIZE", 1000),
+                Util.intFromEnv("BULK_VALUE_SIZE", 8)).run();
+    }
+}
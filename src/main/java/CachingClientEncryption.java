@@ -0,0 +1,126 @@
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.mongodb.client.model.vault.DataKeyOptions;
+import com.mongodb.client.model.vault.EncryptOptions;
+import com.mongodb.client.vault.ClientEncryption;
+import org.bson.BsonBinary;
+import org.bson.BsonBinaryWriter;
+import org.bson.BsonValue;
+import org.bson.codecs.BsonValueCodec;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/*
+ * A ClientEncryption that memoizes deterministic encryption. For AEAD_AES_256_CBC_HMAC_SHA_512-Deterministic the
+ * same (value, key) always encrypts to the same ciphertext, so results are cached by the BSON bytes of the value and
+ * the key id or alt name. Random encryption is never cached. Eviction is Caffeine's size-bounded W-TinyLFU.
+ */
+class CachingClientEncryption implements ClientEncryption {
+    private static final String DETERMINISTIC = "AEAD_AES_256_CBC_HMAC_SHA_512-Deterministic";
+    private static final BsonValueCodec VALUE_CODEC = new BsonValueCodec();
+
+    private final ClientEncryption delegate;
+    private final Cache<Key, BsonBinary> cache;
+
+    /* Cache up to 'maximumSize' ciphertexts, each for at most 'ttlMillis' if it is positive. */
+    CachingClientEncryption (ClientEncryption delegate, long maximumSize, long ttlMillis) {
+        this.delegate = delegate;
+        Caffeine<Object, Object> builder = Caffeine.newBuilder().maximumSize(maximumSize).recordStats();
+        if (ttlMillis > 0) {
+            builder.expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS);
+        }
+        this.cache = builder.build();
+    }
+
+    private static final class Key {
+        private final byte[] value;
+        private final byte[] keyId;
+        private final String keyAltName;
+        private final int hash;
+
+        Key (byte[] value, byte[] keyId, String keyAltName) {
+            this.value = value;
+            this.keyId = keyId;
+            this.keyAltName = keyAltName;
+            this.hash = 31 * (31 * Arrays.hashCode(value) + Arrays.hashCode(keyId))
+                    + (keyAltName == null ? 0 : keyAltName.hashCode());
+        }
+
+        @Override
+        public boolean equals (Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key that = (Key) o;
+            return hash == that.hash && Arrays.equals(value, that.value) && Arrays.equals(keyId, that.keyId)
+                    && (keyAltName == null ? that.keyAltName == null : keyAltName.equals(that.keyAltName));
+        }
+
+        @Override
+        public int hashCode () {
+            return hash;
+        }
+    }
+
+    /* The BSON bytes of 'value' as the only element of a document, which includes its type. */
+    private static byte[] valueBytes (BsonValue value) {
+        BasicOutputBuffer buffer = new BasicOutputBuffer(64);
+        try (BsonBinaryWriter writer = new BsonBinaryWriter(buffer)) {
+            writer.writeStartDocument();
+            writer.writeName("v");
+            VALUE_CODEC.encode(writer, value, EncoderContext.builder().build());
+            writer.writeEndDocument();
+        }
+        return buffer.toByteArray();
+    }
+
+    @Override
+    public BsonBinary encrypt (final BsonValue value, final EncryptOptions options) {
+        if (!DETERMINISTIC.equals(options.getAlgorithm())) {
+            return delegate.encrypt(value, options);
+        }
+        Key key = new Key(valueBytes(value), options.getKeyId() == null ? null : options.getKeyId().getData(),
+                options.getKeyAltName());
+        BsonBinary encrypted = cache.get(key, new Function<Key, BsonBinary>() {
+            @Override
+            public BsonBinary apply (Key k) {
+                return delegate.encrypt(value, options);
+            }
+        });
+        /* Hand out a copy so callers cannot modify the cached bytes. */
+        return new BsonBinary(encrypted.getType(), encrypted.getData().clone());
+    }
+
+    @Override
+    public BsonValue decrypt (BsonBinary value) {
+        return delegate.decrypt(value);
+    }
+
+    @Override
+    public BsonBinary createDataKey (String kmsProvider) {
+        return delegate.createDataKey(kmsProvider);
+    }
+
+    @Override
+    public BsonBinary createDataKey (String kmsProvider, DataKeyOptions dataKeyOptions) {
+        return delegate.createDataKey(kmsProvider, dataKeyOptions);
+    }
+
+    long hitCount () {
+        return cache.stats().hitCount();
+    }
+
+    long missCount () {
+        return cache.stats().missCount();
+    }
+
+    @Override
+    public void close () {
+        cache.invalidateAll();
+        delegate.close();
+    }
+}
@@ -0,0 +1,299 @@
+import com.mongodb.ClientEncryptionSettings;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.model.vault.EncryptOptions;
+import com.mongodb.client.vault.ClientEncryption;
+import com.mongodb.client.vault.ClientEncryptions;
+import org.bson.*;
+import org.bson.codecs.BsonDocumentCodec;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/*
+ * Streams random values of every (kms, type, algo) combination of corpus.json through explicit encrypt and decrypt,
+ * checking that:
+ * - encrypt fails if-and-only-if EncryptionPolicy prohibits the value,
+ * - decrypt returns the original value,
+ * - deterministic encryption gives the same ciphertext for the same plaintext and key, and different ciphertexts for
+ *   different plaintexts, among the last FUZZ_DET_INDEX distinct deterministic plaintexts.
+ * Nothing is kept per value except in fixed-size structures, so memory stays constant however many values are run.
+ * Each value is generated from its own seed; recently used deterministic seeds are sometimes replayed, so repeated
+ * plaintexts are common enough to exercise the index. Throughput is reported per power-of-two plaintext size.
+ */
+public class CorpusFuzzer {
+    private static final BsonDocumentCodec CODEC = new BsonDocumentCodec();
+    private static final int MAX_REPORTED_FAILURES = 20;
+
+    /* One (kms, type, algo) combination, with the shared options of the corpus fields that have it. */
+    private static class Combination {
+        final CorpusModel.Kms kms;
+        final CorpusModel.Type type;
+        final CorpusModel.Algo algo;
+        final EncryptOptions options;
+
+        Combination (CorpusModel.Field field) {
+            this.kms = field.kms;
+            this.type = field.type;
+            this.algo = field.algo;
+            this.options = field.options;
+        }
+
+        @Override
+        public String toString () {
+            return kms.label() + "/" + type.label() + "/" + algo.label();
+        }
+    }
+
+    /* Counts and times of the values whose encoded plaintext is under 2^bucket bytes. */
+    private static class SizeBucket {
+        long values;
+        long plaintextBytes;
+        long encryptNanos;
+        long decryptNanos;
+    }
+
+    /* A map that forgets its least recently inserted entry once it holds 'capacity' entries. */
+    private static class RollingIndex extends LinkedHashMap<ByteBuffer, ByteBuffer> {
+        private static final long serialVersionUID = 1L;
+        private final int capacity;
+
+        RollingIndex (int capacity) {
+            super(16, 0.75f, false);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry (Map.Entry<ByteBuffer, ByteBuffer> eldest) {
+            return size() > capacity;
+        }
+    }
+
+    private final long count;
+    private final int[] sizes;
+    private final int edgePercent;
+    private final int repeatPercent;
+    private final Set<String> kms;
+    private final long seed;
+
+    private final List<Combination> combinations = new ArrayList<>();
+    private final EncryptionPolicy policy;
+    /* Deterministic plaintext digest to ciphertext digest, and the reverse. */
+    private final RollingIndex ciphertextByPlaintext;
+    private final RollingIndex plaintextByCiphertext;
+    /* Ring of recent deterministic (combination, seed) pairs to replay. */
+    private final int[] recentCombinations;
+    private final long[] recentSeeds;
+    private int recentCount;
+    private int recentNext;
+    private final SizeBucket[] buckets = new SizeBucket[32];
+    private final MessageDigest sha256;
+    private long failures;
+    private long prohibited;
+    private long repeats;
+    private long indexHits;
+
+    CorpusFuzzer (long count, int[] sizes, int edgePercent, int repeatPercent, int indexSize, int repeatWindow,
+                  Set<String> kms, long seed) throws NoSuchAlgorithmException {
+        this.count = count;
+        this.sizes = sizes;
+        this.edgePercent = edgePercent;
+        this.repeatPercent = repeatPercent;
+        this.kms = kms;
+        this.seed = seed;
+        this.ciphertextByPlaintext = new RollingIndex(indexSize);
+        this.plaintextByCiphertext = new RollingIndex(indexSize);
+        this.recentCombinations = new int[repeatWindow];
+        this.recentSeeds = new long[repeatWindow];
+        this.sha256 = MessageDigest.getInstance("SHA-256");
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new SizeBucket();
+        }
+
+        BsonDocument corpus = Util.bsonDocumentFromPath("./corpus/corpus.json");
+        this.policy = EncryptionPolicy.fromCorpus(corpus);
+        Set<String> seen = new HashSet<>();
+        for (CorpusModel.Field field : new CorpusModel(corpus).fields()) {
+            if (field.method == CorpusModel.Method.EXPLICIT && kms.contains(field.kms.label())) {
+                Combination combination = new Combination(field);
+                if (seen.add(combination.toString())) {
+                    combinations.add(combination);
+                }
+            }
+        }
+    }
+
+    private Map<String, Map<String, Object>> kmsProviders () {
+        Map<String, Map<String, Object>> kmsProviders = Util.localKmsProviders();
+        if (kms.contains("aws")) {
+            if (System.getenv("AWS_ACCESS_KEY_ID") == null || System.getenv("AWS_SECRET_ACCESS_KEY") == null) {
+                throw new IllegalArgumentException("no aws creds set");
+            }
+            Map<String, Object> awsCreds = new HashMap<>();
+            awsCreds.put("accessKeyId", System.getenv("AWS_ACCESS_KEY_ID"));
+            awsCreds.put("secretAccessKey", System.getenv("AWS_SECRET_ACCESS_KEY"));
+            kmsProviders.put("aws", awsCreds);
+        }
+        return kmsProviders;
+    }
+
+    /* The value for 'valueSeed', which is the same every time the seed is replayed. */
+    private BsonValue generate (Combination combination, long valueSeed) {
+        Random random = new Random(valueSeed);
+        int size = sizes[random.nextInt(sizes.length)];
+        return random.nextInt(100) < edgePercent
+                ? CorpusValues.edge(combination.type.label(), random, size)
+                : CorpusValues.random(combination.type.label(), random, size);
+    }
+
+    /* The value wrapped as {"v": value}, which is how libmongocrypt sees it, as bytes. */
+    private static ByteBuffer encode (BsonValue value) {
+        return new RawBsonDocument(new BsonDocument("v", value), CODEC).getByteBuffer().asNIO();
+    }
+
+    private ByteBuffer digest (CorpusModel.Kms kms, ByteBuffer bytes) {
+        sha256.reset();
+        sha256.update((byte) kms.ordinal());
+        sha256.update(bytes.duplicate());
+        return ByteBuffer.wrap(sha256.digest());
+    }
+
+    private void fail (String message) {
+        failures++;
+        if (failures <= MAX_REPORTED_FAILURES) {
+            System.out.println("FAIL: " + message);
+        }
+    }
+
+    /* Check a deterministic ciphertext against the rolling index, then record it. */
+    private void checkDeterministic (Combination combination, ByteBuffer plaintext, BsonBinary ciphertext) {
+        ByteBuffer plaintextDigest = digest(combination.kms, plaintext);
+        ByteBuffer ciphertextDigest = digest(combination.kms, ByteBuffer.wrap(ciphertext.getData()));
+        ByteBuffer expectedCiphertext = ciphertextByPlaintext.get(plaintextDigest);
+        if (expectedCiphertext != null) {
+            indexHits++;
+            if (!expectedCiphertext.equals(ciphertextDigest)) {
+                fail(combination + ": same plaintext gave a different deterministic ciphertext");
+            }
+        }
+        ByteBuffer expectedPlaintext = plaintextByCiphertext.get(ciphertextDigest);
+        if (expectedPlaintext != null && !expectedPlaintext.equals(plaintextDigest)) {
+            fail(combination + ": different plaintexts gave the same deterministic ciphertext");
+        }
+        ciphertextByPlaintext.put(plaintextDigest, ciphertextDigest);
+        plaintextByCiphertext.put(ciphertextDigest, plaintextDigest);
+    }
+
+    private void fuzzOne (ClientEncryption clientEncryption, Random random) {
+        int combinationIndex;
+        long valueSeed;
+        if (recentCount > 0 && random.nextInt(100) < repeatPercent) {
+            int slot = random.nextInt(recentCount);
+            combinationIndex = recentCombinations[slot];
+            valueSeed = recentSeeds[slot];
+            repeats++;
+        } else {
+            combinationIndex = random.nextInt(combinations.size());
+            valueSeed = random.nextLong();
+        }
+        Combination combination = combinations.get(combinationIndex);
+        BsonValue value = generate(combination, valueSeed);
+        ByteBuffer plaintext = encode(value);
+        SizeBucket bucket = buckets[32 - Integer.numberOfLeadingZeros(plaintext.remaining())];
+
+        boolean allowed = policy.allows(value, combination.algo.algorithm);
+        BsonBinary ciphertext = null;
+        long start = System.nanoTime();
+        try {
+            ciphertext = clientEncryption.encrypt(value, combination.options);
+        } catch (RuntimeException e) {
+            if (allowed) {
+                fail(combination + ": encrypt failed for an allowed value: " + e.getMessage());
+            }
+        }
+        long encryptNanos = System.nanoTime() - start;
+        if (ciphertext == null) {
+            prohibited++;
+            return;
+        }
+        if (!allowed) {
+            fail(combination + ": encrypt succeeded for a prohibited value");
+            return;
+        }
+
+        start = System.nanoTime();
+        BsonValue decrypted = clientEncryption.decrypt(ciphertext);
+        long decryptNanos = System.nanoTime() - start;
+        if (!decrypted.equals(value)) {
+            fail(combination + ": decrypted value differs from the plaintext (seed " + valueSeed + ")");
+        }
+        if (combination.algo == CorpusModel.Algo.DET) {
+            checkDeterministic(combination, plaintext, ciphertext);
+            recentCombinations[recentNext] = combinationIndex;
+            recentSeeds[recentNext] = valueSeed;
+            recentNext = (recentNext + 1) % recentSeeds.length;
+            recentCount = Math.min(recentCount + 1, recentSeeds.length);
+        }
+        bucket.values++;
+        bucket.plaintextBytes += plaintext.remaining();
+        bucket.encryptNanos += encryptNanos;
+        bucket.decryptNanos += decryptNanos;
+    }
+
+    private void run () {
+        MongoClient client = MongoClients.create(MongoClientSettings.builder().codecRegistry(Fixtures.CODEC_REGISTRY).build());
+        Util.resetKeyVault(client, "admin.datakeys", "./corpus/corpus-key-aws.json", "./corpus/corpus-key-local.json");
+        ClientEncryption clientEncryption = ClientEncryptions.create(ClientEncryptionSettings.builder()
+                .keyVaultMongoClientSettings(MongoClientSettings.builder().codecRegistry(Fixtures.CODEC_REGISTRY).build())
+                .kmsProviders(kmsProviders())
+                .keyVaultNamespace("admin.datakeys")
+                .build());
+
+        System.out.println(String.format("%d values over %d combinations, sizes %s, %d%% edge values, %d%% replays, seed %d",
+                count, combinations.size(), Arrays.toString(sizes), edgePercent, repeatPercent, seed));
+        Random random = new Random(seed);
+        Runtime runtime = Runtime.getRuntime();
+        long reportEvery = Math.max(1, count / 10);
+        long start = System.nanoTime();
+        for (long i = 1; i <= count; i++) {
+            fuzzOne(clientEncryption, random);
+            if (i % reportEvery == 0) {
+                System.out.println(String.format("%10d values, %8.0f values/s, %d failures, heap used %d MB", i,
+                        i / ((System.nanoTime() - start) / 1e9), failures,
+                        (runtime.totalMemory() - runtime.freeMemory()) >> 20));
+            }
+        }
+        clientEncryption.close();
+        client.close();
+
+        System.out.println(String.format("%d prohibited, %d replays, %d deterministic index hits (index holds %d)",
+                prohibited, repeats, indexHits, ciphertextByPlaintext.size()));
+        System.out.println("plaintext bytes     values   encrypt us   decrypt us   encrypt MB/s");
+        for (int i = 0; i < buckets.length; i++) {
+            SizeBucket bucket = buckets[i];
+            if (bucket.values == 0) {
+                continue;
+            }
+            System.out.println(String.format("< %-12d %10d %12.1f %12.1f %14.2f", 1L << i, bucket.values,
+                    bucket.encryptNanos / 1e3 / bucket.values, bucket.decryptNanos / 1e3 / bucket.values,
+                    bucket.plaintextBytes / (bucket.encryptNanos / 1e9) / 1e6));
+        }
+        Util.doAssert(failures == 0);
+    }
+
+    public static void main(String[] args) throws NoSuchAlgorithmException {
+        String kms = System.getenv("FUZZ_KMS");
+        String seed = System.getenv("FUZZ_SEED");
+        new CorpusFuzzer(Util.intFromEnv("FUZZ_VALUES", 1000000),
+                Util.intsFromEnv("FUZZ_SIZES", "0,1,8,64,512,4096,65536"),
+                Util.intFromEnv("FUZZ_EDGE_PERCENT", 20),
+                Util.intFromEnv("FUZZ_REPLAY_PERCENT", 10),
+                Util.intFromEnv("FUZZ_DET_INDEX", 100000),
+                Util.intFromEnv("FUZZ_REPLAY_WINDOW", 1024),
+                new HashSet<>(Arrays.asList((kms == null ? "local" : kms).split(","))),
+                seed == null ? System.nanoTime() : Long.parseLong(seed)).run();
+    }
+}
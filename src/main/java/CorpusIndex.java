@@ -0,0 +1,101 @@
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/*
+ * One-pass index of the expected encrypted corpus (corpus-encrypted.json) used to verify Step 8 of the corpus test
+ * in linear time. Checks append a description of every mismatch to a list instead of stopping at the first one.
+ */
+class CorpusIndex {
+    /* Distinct deterministic values of the expected corpus, grouped by "kms/type". */
+    private final Map<String, Set<BsonValue>> deterministicValues = new HashMap<>();
+    /* Fields of the expected corpus holding each ciphertext, keyed by the ciphertext bytes. */
+    private final Map<ByteBuffer, List<String>> ciphertextFields = new HashMap<>();
+    /* Fields of the expected corpus holding each non-binary (i.e. unencrypted) value. */
+    private final Map<BsonValue, List<String>> plaintextFields = new HashMap<>();
+
+    CorpusIndex (BsonDocument expected) {
+        /* Iterate entries rather than keys, since each lookup on a RawBsonDocument rescans it. */
+        for (Map.Entry<String, BsonValue> entry : expected.entrySet()) {
+            String field = entry.getKey();
+            if (field.equals("_id") || field.equals("altname_aws") || field.equals("altname_local")) {
+                continue;
+            }
+            BsonDocument subdoc = entry.getValue().asDocument();
+            String kms = subdoc.getString("kms").getValue();
+            String type = subdoc.getString("type").getValue();
+            String algo = subdoc.getString("algo").getValue();
+            BsonValue value = subdoc.get("value");
+
+            if (algo.equals("det")) {
+                String group = kms + "/" + type;
+                Set<BsonValue> values = deterministicValues.get(group);
+                if (values == null) {
+                    values = new HashSet<>();
+                    deterministicValues.put(group, values);
+                }
+                values.add(value);
+            }
+
+            List<String> fields;
+            if (value.isBinary()) {
+                ByteBuffer bytes = ByteBuffer.wrap(value.asBinary().getData());
+                fields = ciphertextFields.get(bytes);
+                if (fields == null) {
+                    fields = new ArrayList<>(1);
+                    ciphertextFields.put(bytes, fields);
+                }
+            } else {
+                fields = plaintextFields.get(value);
+                if (fields == null) {
+                    fields = new ArrayList<>(1);
+                    plaintextFields.put(value, fields);
+                }
+            }
+            fields.add(field);
+        }
+    }
+
+    /* Check that all expected deterministic values with the same kms + type match 'val' */
+    void deterministicCheck (String field, BsonValue val, String kms, String type, List<String> failures) {
+        deterministicCheck(field, val, kms + "/" + type, failures);
+    }
+
+    /* As above, with the group precompiled by CorpusModel so nothing is allocated unless the check fails. */
+    void deterministicCheck (CorpusModel.Field field, BsonValue val, List<String> failures) {
+        deterministicCheck(field.name, val, field.group, failures);
+    }
+
+    private void deterministicCheck (String field, BsonValue val, String group, List<String> failures) {
+        Set<BsonValue> values = deterministicValues.get(group);
+        if (values == null) {
+            return;
+        }
+        for (BsonValue expected : values) {
+            if (!expected.equals(val)) {
+                failures.add(field + ": deterministic value differs from expected " + group + " value");
+                return;
+            }
+        }
+    }
+
+    /* Check that 'val' does not appear in any expected field other than 'field' */
+    void randomCheck (String field, BsonValue val, List<String> failures) {
+        List<String> fields;
+        if (val.isBinary()) {
+            fields = ciphertextFields.get(ByteBuffer.wrap(val.asBinary().getData()));
+        } else {
+            fields = plaintextFields.get(val);
+        }
+        if (fields == null) {
+            return;
+        }
+        for (String other : fields) {
+            if (!other.equals(field)) {
+                failures.add(field + ": random value matches expected value of " + other);
+            }
+        }
+    }
+}
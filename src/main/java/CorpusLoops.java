@@ -0,0 +1,175 @@
+import com.mongodb.client.model.vault.EncryptOptions;
+import org.bson.*;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+
+/*
+ * The per-field work of CorpusRunner's Step 5 (copy) and Step 8 (verify) loops without the server: the ciphertexts
+ * of corpus-encrypted.json stand in for encrypt results and for the stored document, and decrypt is skipped. "legacy" extracts fields the way
+ * CorpusRunner used to, with repeated lookups, Base64 decoding and a new EncryptOptions per field; "compiled" uses
+ * CorpusModel. Used by the JMH CorpusLoopBenchmark, which cannot see the default package, through workload().
+ */
+class CorpusLoops {
+    private final BsonDocument corpus = Util.bsonDocumentFromPath("./corpus/corpus.json");
+    private final BsonDocument encrypted = Util.bsonDocumentFromPath("./corpus/corpus-encrypted.json");
+    private final CorpusIndex index = new CorpusIndex(encrypted);
+    private final EncryptionPolicy policy = EncryptionPolicy.fromCorpus(corpus);
+    private final CorpusModel model = new CorpusModel(corpus);
+    /* What Step 8 reads back: corpus.json with the expected ciphertext of every allowed field. */
+    private final BsonDocument stored = new BsonDocument();
+
+    private CorpusLoops () {
+        for (Map.Entry<String, BsonValue> entry : corpus.entrySet()) {
+            CorpusModel.Field field = model.field(entry.getKey());
+            if (field == null || !field.allowed) {
+                stored.append(entry.getKey(), entry.getValue());
+            } else {
+                stored.append(field.name, field.subdoc.clone().append("value", encrypted.getDocument(field.name).get("value")));
+            }
+        }
+    }
+
+    /* The loop named by 'extraction' ("legacy" or "compiled") and 'loop' ("copy" or "verify"). */
+    static Callable<Object> workload (String extraction, String loop) {
+        final CorpusLoops loops = new CorpusLoops();
+        final boolean compiled = extraction.equals("compiled");
+        if (!compiled && !extraction.equals("legacy")) {
+            throw new IllegalArgumentException("unknown extraction: " + extraction);
+        }
+        if (loop.equals("copy")) {
+            return new Callable<Object>() {
+                @Override
+                public Object call () {
+                    return compiled ? loops.compiledCopy() : loops.legacyCopy();
+                }
+            };
+        }
+        if (loop.equals("verify")) {
+            return new Callable<Object>() {
+                @Override
+                public Object call () {
+                    return compiled ? loops.compiledVerify() : loops.legacyVerify();
+                }
+            };
+        }
+        throw new IllegalArgumentException("unknown loop: " + loop);
+    }
+
+    /* What encrypt would have returned for 'field', or null if it would have thrown. */
+    private BsonValue fakeEncrypt (String field, BsonValue value, EncryptOptions opts) {
+        if (!policy.allows(value, opts.getAlgorithm())) {
+            return null;
+        }
+        return encrypted.getDocument(field).get("value");
+    }
+
+    private BsonDocument legacyCopy () {
+        BsonDocument corpus_copied = new BsonDocument();
+        for (String field : corpus.keySet()) {
+            if (field.equals("_id") || field.equals("altname_aws") || field.equals("altname_local")) {
+                corpus_copied.append(field, corpus.get(field));
+                continue;
+            }
+            String kms = corpus.getDocument(field).getString("kms").getValue();
+            String algo = corpus.getDocument(field).getString("algo").getValue();
+            String method = corpus.getDocument(field).getString("method").getValue();
+            String identifier = corpus.getDocument(field).getString("identifier").getValue();
+            boolean allowed = corpus.getDocument(field).getBoolean("allowed").getValue();
+            BsonValue value = corpus.getDocument(field).get("value");
+            byte[] aws_key_id = Base64.getDecoder().decode("AWSAAAAAAAAAAAAAAAAAAA==");
+            byte[] local_key_id = Base64.getDecoder().decode("LOCALAAAAAAAAAAAAAAAAA==");
+            if (method.equals("auto")) {
+                corpus_copied.append(field, corpus.get(field));
+                continue;
+            }
+            String algo_full = "AEAD_AES_256_CBC_HMAC_SHA_512-";
+            if (algo.equals("rand")) algo_full += "Random";
+            if (algo.equals("det")) algo_full += "Deterministic";
+            EncryptOptions opts = new EncryptOptions(algo_full);
+            Util.doAssert(identifier.equals("id") || identifier.equals("altname"));
+            opts.keyId(new BsonBinary(BsonBinarySubType.UUID_STANDARD, kms.equals("aws") ? aws_key_id : local_key_id));
+            BsonValue ciphertext = fakeEncrypt(field, value, opts);
+            Util.doAssert((ciphertext != null) == allowed);
+            if (allowed) {
+                BsonDocument doc = corpus.getDocument(field).clone();
+                doc.put("value", ciphertext);
+                corpus_copied.append(field, doc);
+            } else {
+                corpus_copied.append(field, corpus.get(field));
+            }
+        }
+        return corpus_copied;
+    }
+
+    private BsonDocument compiledCopy () {
+        BsonDocument corpus_copied = new BsonDocument();
+        for (Map.Entry<String, BsonValue> entry : corpus.entrySet()) {
+            CorpusModel.Field field = model.field(entry.getKey());
+            if (field == null || field.method == CorpusModel.Method.AUTO) {
+                corpus_copied.append(entry.getKey(), entry.getValue());
+                continue;
+            }
+            BsonValue ciphertext = fakeEncrypt(field.name, field.value, field.options);
+            Util.doAssert((ciphertext != null) == field.allowed);
+            if (field.allowed) {
+                BsonDocument doc = field.subdoc.clone();
+                doc.put("value", ciphertext);
+                corpus_copied.append(field.name, doc);
+            } else {
+                corpus_copied.append(field.name, field.subdoc);
+            }
+        }
+        return corpus_copied;
+    }
+
+    private List<String> legacyVerify () {
+        List<String> failures = new ArrayList<>();
+        for (Map.Entry<String, BsonValue> entry : stored.entrySet()) {
+            String field = entry.getKey();
+            if (field.equals("_id") || field.equals("altname_aws") || field.equals("altname_local")) {
+                continue;
+            }
+            BsonDocument subdoc = entry.getValue().asDocument();
+            String kms = subdoc.getString("kms").getValue();
+            String type = subdoc.getString("type").getValue();
+            String algo = subdoc.getString("algo").getValue();
+            boolean allowed = subdoc.getBoolean("allowed").getValue();
+            BsonValue value = subdoc.get("value");
+            if (algo.equals("det")) {
+                index.deterministicCheck(field, value, kms, type, failures);
+            }
+            if (algo.equals("rand") && allowed) {
+                index.randomCheck(field, value, failures);
+            }
+            BsonValue expected = corpus.getDocument(field).get("value");
+            if (!allowed && !value.equals(expected)) {
+                failures.add(field + ": prohibited value was modified");
+            }
+        }
+        Util.doAssert(failures.isEmpty());
+        return failures;
+    }
+
+    private List<String> compiledVerify () {
+        List<String> failures = new ArrayList<>();
+        for (Map.Entry<String, BsonValue> entry : stored.entrySet()) {
+            CorpusModel.Field field = model.field(entry.getKey());
+            if (field == null) {
+                continue;
+            }
+            BsonValue value = entry.getValue().asDocument().get("value");
+            if (field.algo == CorpusModel.Algo.DET) {
+                index.deterministicCheck(field, value, failures);
+            }
+            if (field.algo == CorpusModel.Algo.RAND && field.allowed) {
+                index.randomCheck(field.name, value, failures);
+            }
+            if (!field.allowed && !value.equals(field.value)) {
+                failures.add(field.name + ": prohibited value was modified");
+            }
+        }
+        Util.doAssert(failures.isEmpty());
+        return failures;
+    }
+}
@@ -0,0 +1,174 @@
+import com.mongodb.client.model.vault.EncryptOptions;
+import org.bson.BsonBinary;
+import org.bson.BsonBinarySubType;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+
+import java.util.*;
+
+/*
+ * corpus.json compiled in one pass into immutable field descriptors, so the encryption and verification loops do not
+ * look up, compare or decode the same strings for every field. Explicit fields share one EncryptOptions per
+ * (algo, key) pair, built from key ids decoded once.
+ */
+class CorpusModel {
+    static final BsonBinary AWS_KEY_ID = new BsonBinary(BsonBinarySubType.UUID_STANDARD,
+            Base64.getDecoder().decode("AWSAAAAAAAAAAAAAAAAAAA=="));
+
+    interface Labeled {
+        String label ();
+    }
+
+    enum Kms implements Labeled {
+        AWS("aws", AWS_KEY_ID), LOCAL("local", Util.LOCAL_KEY_ID);
+
+        private final String label;
+        final BsonBinary keyId;
+
+        Kms (String label, BsonBinary keyId) {
+            this.label = label;
+            this.keyId = keyId;
+        }
+
+        public String label () {
+            return label;
+        }
+    }
+
+    enum Type implements Labeled {
+        DOUBLE("double"), STRING("string"), OBJECT("object"), ARRAY("array"), BIN_DATA_00("binData=00"),
+        BIN_DATA_04("binData=04"), UNDEFINED("undefined"), OBJECT_ID("objectId"), BOOL("bool"), DATE("date"),
+        NULL("null"), REGEX("regex"), DB_POINTER("dbPointer"), JAVASCRIPT("javascript"), SYMBOL("symbol"),
+        JAVASCRIPT_WITH_SCOPE("javascriptWithScope"), INT("int"), TIMESTAMP("timestamp"), LONG("long"),
+        DECIMAL("decimal"), MIN_KEY("minKey"), MAX_KEY("maxKey");
+
+        private final String label;
+
+        Type (String label) {
+            this.label = label;
+        }
+
+        public String label () {
+            return label;
+        }
+    }
+
+    enum Algo implements Labeled {
+        RAND("rand"), DET("det");
+
+        private final String label;
+        final String algorithm;
+
+        Algo (String label) {
+            this.label = label;
+            this.algorithm = Util.algorithm(label);
+        }
+
+        public String label () {
+            return label;
+        }
+    }
+
+    enum Method implements Labeled {
+        AUTO("auto"), EXPLICIT("explicit");
+
+        private final String label;
+
+        Method (String label) {
+            this.label = label;
+        }
+
+        public String label () {
+            return label;
+        }
+    }
+
+    enum Identifier implements Labeled {
+        ID("id"), ALTNAME("altname");
+
+        private final String label;
+
+        Identifier (String label) {
+            this.label = label;
+        }
+
+        public String label () {
+            return label;
+        }
+    }
+
+    private static <E extends Labeled> E parse (E[] values, String label) {
+        for (E value : values) {
+            if (value.label().equals(label)) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("unknown corpus label: " + label);
+    }
+
+    /* One corpus entry. 'options' is shared between fields and must not be modified. */
+    static final class Field {
+        final String name;
+        final Kms kms;
+        final Type type;
+        final Algo algo;
+        final Method method;
+        final Identifier identifier;
+        final boolean allowed;
+        final BsonValue value;
+        /* The corpus entry itself, to copy into documents. */
+        final BsonDocument subdoc;
+        /* The options to explicitly encrypt with, or null for auto fields. */
+        final EncryptOptions options;
+        /* "kms/type", the CorpusIndex group of deterministic fields. */
+        final String group;
+
+        private Field (String name, BsonDocument subdoc, EncryptOptions[][] sharedOptions) {
+            this.name = name;
+            this.subdoc = subdoc;
+            this.kms = parse(Kms.values(), subdoc.getString("kms").getValue());
+            this.type = parse(Type.values(), subdoc.getString("type").getValue());
+            this.algo = parse(Algo.values(), subdoc.getString("algo").getValue());
+            this.method = parse(Method.values(), subdoc.getString("method").getValue());
+            this.identifier = parse(Identifier.values(), subdoc.getString("identifier").getValue());
+            this.allowed = subdoc.getBoolean("allowed").getValue();
+            this.value = subdoc.get("value");
+            /* Key alt names are not supported yet (JAVA-3335), so "altname" fields use the key id too. */
+            this.options = method == Method.EXPLICIT ? sharedOptions[algo.ordinal()][kms.ordinal()] : null;
+            this.group = kms.label() + "/" + type.label();
+        }
+    }
+
+    private final List<Field> fields;
+    private final Map<String, Field> byName = new HashMap<>();
+
+    CorpusModel (BsonDocument corpus) {
+        EncryptOptions[][] sharedOptions = new EncryptOptions[Algo.values().length][Kms.values().length];
+        for (Algo algo : Algo.values()) {
+            for (Kms kms : Kms.values()) {
+                sharedOptions[algo.ordinal()][kms.ordinal()] = new EncryptOptions(algo.algorithm).keyId(kms.keyId);
+            }
+        }
+        List<Field> fields = new ArrayList<>();
+        /* Iterate entries rather than keys, since each lookup on a RawBsonDocument rescans it. */
+        for (Map.Entry<String, BsonValue> entry : corpus.entrySet()) {
+            if (!entry.getValue().isDocument()) {
+                continue;
+            }
+            Field field = new Field(entry.getKey(), entry.getValue().asDocument(), sharedOptions);
+            fields.add(field);
+            byName.put(field.name, field);
+        }
+        this.fields = Collections.unmodifiableList(fields);
+    }
+
+    /* Every corpus entry except _id, altname_aws and altname_local, in corpus order. */
+    List<Field> fields () {
+        return fields;
+    }
+
+    /* The descriptor of the corpus entry 'name', or null if it is not a field (e.g. "_id"). */
+    Field field (String name) {
+        return byName.get(name);
+    }
+}
@@ -1,92 +1,148 @@
 import com.mongodb.AutoEncryptionSettings;
 import com.mongodb.ClientEncryptionSettings;
 import com.mongodb.MongoClientSettings;
-import com.mongodb.client.MongoClients;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
-import com.mongodb.client.model.vault.EncryptOptions;
 import com.mongodb.client.vault.ClientEncryption;
-import com.mongodb.client.vault.ClientEncryptions;
 import org.bson.*;
-import org.bson.codecs.UuidCodec;
+import org.bson.codecs.BsonDocumentCodec;
 import org.bson.codecs.configuration.CodecRegistry;
 import org.bson.json.JsonMode;
 import org.bson.json.JsonWriterSettings;
 
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
-import static org.bson.codecs.configuration.CodecRegistries.fromCodecs;
-import static org.bson.codecs.configuration.CodecRegistries.fromRegistries;
 
 
 public class CorpusRunner {
     private MongoClient client, client_encrypted;
     private ClientEncryption client_encryption;
+    /* Number of threads used to explicitly encrypt the corpus in Step 5. */
+    private final int parallelism;
+    /* If set, values the policy prohibits are rejected in Step 5 without calling encrypt. */
+    private final boolean precheck;
+    /* If set, Steps 7 and 8 read RawBsonDocuments and compare field values as bytes. */
+    private final boolean rawVerify;
+    /* 0: only failures, 1: a line per field, 2: also dump the documents as JSON. Failures always dump them. */
+    private final int verbosity;
+    /* Database holding "coll", and the key vault namespace, so concurrent runs can be isolated. */
+    private final String dbName;
+    private final String keyVaultNamespace;
+    /* Creates, shares and closes the clients. */
+    private final Fixtures fixtures;
+    private final Instrumentation instrumentation;
+    private final BsonDocument corpus = Util.bsonDocumentFromPath("./corpus/corpus.json");
+    private final EncryptionPolicy policy = EncryptionPolicy.fromCorpus(corpus);
+    /* The corpus compiled once, so the per-field loops only read final fields. */
+    private final CorpusModel model = new CorpusModel(corpus);
+
+    CorpusRunner (String dbName, String keyVaultNamespace, Fixtures fixtures,
+                  int parallelism, boolean precheck, boolean rawVerify, int verbosity) {
+        this.dbName = dbName;
+        this.keyVaultNamespace = keyVaultNamespace;
+        this.fixtures = fixtures;
+        this.instrumentation = Instrumentation.fromEnv(keyVaultNamespace);
+        this.parallelism = parallelism;
+        this.precheck = precheck;
+        this.rawVerify = rawVerify;
+        this.verbosity = verbosity;
+    }
 
-    /* Check that all values of 'doc' that are deterministic with the same kms + type match 'val' */
-    private static void deterministicCheck (BsonValue val, String match_kms, String match_type, BsonDocument doc) {
-        for (String field : doc.keySet()) {
-            if (field.equals("_id") || field.equals("altname_aws") || field.equals("altname_local")) {
-                continue;
-            }
-            BsonDocument subdoc = doc.getDocument(field);
-
-            String kms = subdoc.getString("kms").getValue();
-            String type = subdoc.getString("type").getValue();
-            String algo = subdoc.getString("algo").getValue();
-            String method = subdoc.getString("method").getValue();
-            String identifier = subdoc.getString("identifier").getValue();
-            boolean allowed = subdoc.getBoolean("allowed").getValue();
-            BsonValue value = subdoc.get("value");
+    /* Returns the value 'field' should have in corpus_copied, explicitly encrypting it if required. */
+    private BsonValue copyField (CorpusModel.Field field) {
+        if (field.method == CorpusModel.Method.AUTO) {
+            return field.subdoc;
+        }
 
-            if (kms.equals(match_kms) && type.equals(match_type) && algo.equals("det")) {
-                assert (val.equals(value));
+        boolean exceptionThrown = false;
+        BsonValue encrypted = null;
+        if (precheck && !policy.allows(field.value, field.algo.algorithm)) {
+            if (verbosity >= 1) System.out.println("rejected by policy");
+            exceptionThrown = true;
+        } else {
+            try {
+                encrypted = instrumentation.encrypt (client_encryption, field.value, field.options);
+            } catch (Exception e) {
+                if (verbosity >= 1) System.out.println(e.getMessage());
+                exceptionThrown = true;
             }
+            // The policy table must predict the outcome of every encrypt call.
+            Util.doAssert(policy.allows(field.value, field.algo.algorithm) == !exceptionThrown);
+        }
+        if (verbosity >= 1) System.out.println(field.name + " allowed? " + field.allowed + "value + " + field.value);
+        // An exception is thrown if-and-only-if the method is prohibited.
+        assert (exceptionThrown == !field.allowed);
+
+        if (field.allowed) {
+            assert (encrypted != null);
+            BsonDocument doc = field.subdoc.clone();
+            doc.put("value", encrypted); /* hope this overwrites */
+            return doc;
+        } else {
+            return field.subdoc;
         }
     }
 
-    private static void randomCheck (BsonValue val, String exclude_field, BsonDocument doc) {
-        for (String field : doc.keySet()) {
-            if (field.equals("_id") || field.equals("altname_aws") || field.equals("altname_local")) {
-                continue;
+    /* Copy every field of 'corpus' into a new document, running copyField on 'parallelism' worker threads. */
+    private BsonDocument copyCorpus (final BsonDocument corpus) {
+        BsonDocument corpus_copied = new BsonDocument();
+        if (parallelism <= 1) {
+            for (Map.Entry<String, BsonValue> entry : corpus.entrySet()) {
+                CorpusModel.Field field = model.field(entry.getKey());
+                corpus_copied.append(entry.getKey(), field == null ? entry.getValue() : copyField(field));
             }
+            return corpus_copied;
+        }
 
-            if (field.equals(exclude_field)) {
-                continue;
+        ExecutorService pool = Executors.newFixedThreadPool(parallelism);
+        try {
+            /* Futures are kept in the corpus key order so corpus_copied keeps the original field order. */
+            List<Future<BsonValue>> copies = new ArrayList<>();
+            for (final Map.Entry<String, BsonValue> entry : corpus.entrySet()) {
+                final CorpusModel.Field field = model.field(entry.getKey());
+                copies.add(pool.submit(new Callable<BsonValue>() {
+                    @Override
+                    public BsonValue call() {
+                        return field == null ? entry.getValue() : copyField(field);
+                    }
+                }));
             }
-
-            assert !doc.getDocument(field).get("value").equals(val);
+            int i = 0;
+            for (String field : corpus.keySet()) {
+                corpus_copied.append(field, Util.await(copies.get(i++)));
+            }
+        } finally {
+            pool.shutdownNow();
         }
+        return corpus_copied;
     }
 
-
-    private void corpusTest (boolean useLocalSchema) {
+    void corpusTest (boolean useLocalSchema) {
         MongoClientSettings.Builder clientSettingsBuilder = MongoClientSettings.builder();
         /* TODO: figure out how this coded magic works */
-        CodecRegistry codecRegistry = fromRegistries(
-                fromCodecs(new UuidCodec(UuidRepresentation.STANDARD)), MongoClientSettings.getDefaultCodecRegistry());
+        CodecRegistry codecRegistry = Fixtures.CODEC_REGISTRY;
         clientSettingsBuilder.codecRegistry(codecRegistry);
         MongoClientSettings clientSettings = clientSettingsBuilder.build();
 
         /* Step 1: create unencrypted client. */
-        this.client = MongoClients.create(clientSettings);
-        MongoDatabase db = client.getDatabase("db");
+        this.client = fixtures.client(clientSettings);
+        MongoDatabase db = client.getDatabase(dbName);
 
         /* Step 2: Drop and recreate db.coll with schema */
         db.getCollection("coll").drop();
-        BsonDocument schema = Util.bsonDocumentFromPath("./corpus/corpus-schema.json");
+        BsonDocument schema = Util.rawBsonDocumentFromPath("./corpus/corpus-schema.json");
         BsonDocument createCmd = new BsonDocument();
         createCmd.append("create", new BsonString("coll"));
         createCmd.append("validator", new BsonDocument("$jsonSchema", schema));
         db.runCommand(createCmd);
 
         /* Step 3: Drop and create admin.datakeys */
-        MongoDatabase admin = client.getDatabase("admin");
-        MongoCollection datakeys = admin.getCollection("datakeys", BsonDocument.class);
-        datakeys.drop();
-        datakeys.insertOne(Util.bsonDocumentFromPath("./corpus/corpus-key-aws.json"));
-        datakeys.insertOne(Util.bsonDocumentFromPath("./corpus/corpus-key-local.json"));
+        Util.resetKeyVault(client, keyVaultNamespace, "./corpus/corpus-key-aws.json", "./corpus/corpus-key-local.json");
 
         /* Step 4: Configure our objects. */
         Map kmsProviders = new HashMap();
@@ -105,10 +161,10 @@ public class CorpusRunner {
         kmsProviders.put("local", localMasterkey);
 
         HashMap<String, BsonDocument> schemaMap = new HashMap<>();
-        schemaMap.put("db.coll", schema);
+        schemaMap.put(dbName + ".coll", schema);
 
-        AutoEncryptionSettings.Builder autoEncryptionSettingsBuilder = AutoEncryptionSettings.builder()
-                .keyVaultNamespace("admin.datakeys")
+        AutoEncryptionSettings.Builder autoEncryptionSettingsBuilder = fixtures.autoEncryptionSettingsBuilder()
+                .keyVaultNamespace(keyVaultNamespace)
                 .kmsProviders(kmsProviders);
 
         if (useLocalSchema) {
@@ -116,151 +172,113 @@ public class CorpusRunner {
         }
         AutoEncryptionSettings autoEncryptionSettings = autoEncryptionSettingsBuilder.build();
 
-        clientSettings = MongoClientSettings.builder()
+        clientSettings = instrumentation.apply(MongoClientSettings.builder())
                 .codecRegistry(codecRegistry)
                 .autoEncryptionSettings(autoEncryptionSettings)
                 .build();
-        this.client_encrypted = MongoClients.create (clientSettings);
+        this.client_encrypted = fixtures.client(clientSettings);
 
         ClientEncryptionSettings clientEncryptionSettings = ClientEncryptionSettings.builder().
-                keyVaultMongoClientSettings(MongoClientSettings.builder().build()).
+                keyVaultMongoClientSettings(instrumentation.apply(MongoClientSettings.builder()).build()).
                 kmsProviders(kmsProviders).
-                keyVaultNamespace("admin.datakeys").build();
-        this.client_encryption = ClientEncryptions.create (clientEncryptionSettings);
+                keyVaultNamespace(keyVaultNamespace).build();
+        this.client_encryption = fixtures.clientEncryption(clientEncryptionSettings);
         /* Step 5: Iterate over corpus. */
-        BsonDocument corpus = Util.bsonDocumentFromPath("./corpus/corpus.json");
-        BsonDocument corpus_copied = new BsonDocument();
-        for (String field : corpus.keySet()) {
-            if (field.equals("_id" ) || field.equals("altname_aws") || field.equals("altname_local")) {
-                corpus_copied.append(field, corpus.get(field));
-                continue;
-            }
-
-            String kms = corpus.getDocument(field).getString("kms").getValue();
-            String type = corpus.getDocument(field).getString("type").getValue();
-            String algo = corpus.getDocument(field).getString("algo").getValue();
-            String method = corpus.getDocument(field).getString("method").getValue();
-            String identifier = corpus.getDocument(field).getString("identifier").getValue();
-            boolean allowed = corpus.getDocument(field).getBoolean("allowed").getValue();
-            BsonValue value = corpus.getDocument(field).get("value");
-
-            byte[] aws_key_id = Base64.getDecoder().decode("AWSAAAAAAAAAAAAAAAAAAA==");
-            byte[] local_key_id = Base64.getDecoder().decode("LOCALAAAAAAAAAAAAAAAAA==");
-
-            if (method.equals("auto")) {
-                corpus_copied.append(field, corpus.get(field));
-                continue;
-            }
-
-            assert (method.equals("explicit"));
-
-            String algo_full = "AEAD_AES_256_CBC_HMAC_SHA_512-";
-            if (algo.equals("rand")) algo_full  += "Random";
-            if (algo.equals("det")) algo_full  += "Deterministic";
-            EncryptOptions opts = new EncryptOptions(algo_full);
-            if (identifier.equals("id")) {
-                if (kms.equals("aws")) {
-                    opts.keyId(new BsonBinary(BsonBinarySubType.UUID_STANDARD, aws_key_id));
-                } else {
-                    assert (kms.equals("local"));
-                    opts.keyId(new BsonBinary(BsonBinarySubType.UUID_STANDARD, local_key_id));
-                }
-            } else {
-                assert (identifier.equals("altname"));
-                if (kms.equals("aws")) {
-                    // TODO: key alt name support waiting on JAVA-3335. Use id for now.
-                    // opts.keyAltName(new BsonString("aws"));
-                    opts.keyId(new BsonBinary(BsonBinarySubType.UUID_STANDARD, aws_key_id));
-                } else {
-                    assert (kms.equals("local"));
-                    // TODO: key alt name support waiting on JAVA-3335. Use id for now.
-                    // opts.keyAltName(new BsonString("local"));
-                    opts.keyId(new BsonBinary(BsonBinarySubType.UUID_STANDARD, local_key_id));
-                }
-            }
-            boolean exceptionThrown = false;
-            BsonValue encrypted = null;
-            try {
-                encrypted = client_encryption.encrypt (value, opts);
-            } catch (Exception e) {
-                System.out.println(e.getMessage());
-                exceptionThrown = true;
-            }
-            System.out.println(field + " allowed? " + allowed + "value + " + value);
-            // An exception is thrown if-and-only-if the method is prohibited.
-            assert (exceptionThrown == !allowed);
-
-            if (allowed) {
-                assert (encrypted != null);
-                BsonDocument doc = corpus.getDocument(field).clone();
-                doc.put("value", encrypted); /* hope this overwrites */
-                corpus_copied.append(field, doc);
-            } else {
-                corpus_copied.append(field, corpus.get(field));
-            }
-        }
+        BsonDocument corpus_copied = copyCorpus(corpus);
         // Step 6: insert corpus_copied.
-        MongoCollection coll_encrypted = client_encrypted.getDatabase("db").getCollection("coll", BsonDocument.class);
-        coll_encrypted.insertOne(corpus_copied);
+        MongoCollection coll_encrypted = client_encrypted.getDatabase(dbName).getCollection("coll", BsonDocument.class);
+        Instrumentation.Span span = instrumentation.start("insert");
+        try {
+            coll_encrypted.insertOne(corpus_copied);
+        } finally {
+            span.end();
+        }
 
         // Step 7: check the auto decrypted document.
-        BsonDocument corpus_decrypted = (BsonDocument)coll_encrypted.find(new BsonDocument()).first();
-        System.out.println(corpus_decrypted);
-        System.out.println(corpus);
-        assert corpus_decrypted.equals(corpus);
+        List<String> failures = new ArrayList<>();
+        BsonDocument corpus_decrypted;
+        span = instrumentation.start("find");
+        try {
+            corpus_decrypted = rawVerify
+                    ? (BsonDocument) coll_encrypted.withDocumentClass(RawBsonDocument.class).find(new BsonDocument()).first()
+                    : (BsonDocument) coll_encrypted.find(new BsonDocument()).first();
+        } finally {
+            span.end();
+        }
+        if (rawVerify) {
+            RawFields.diff(new RawBsonDocument(corpus, new BsonDocumentCodec()), (RawBsonDocument) corpus_decrypted, failures);
+        } else if (!corpus_decrypted.equals(corpus)) {
+            failures.add("decrypted document does not match corpus");
+        }
 
         // Step 8: check the document with an unencrypted client.
-        MongoCollection coll = client.getDatabase("db").getCollection("coll", BsonDocument.class);
-        BsonDocument corpus_encrypted_actual = (BsonDocument) coll.find(new BsonDocument()).first();
-        JsonWriterSettings toJsonSettings = JsonWriterSettings.builder().outputMode(JsonMode.EXTENDED).build();
-        System.out.println (corpus_encrypted_actual.toJson(toJsonSettings));
-
-        //JsonWriterSettings toJsonSettings = JsonWriterSettings.builder().outputMode(JsonMode.EXTENDED).build();
-        System.out.println(corpus.toJson(toJsonSettings));
-        System.out.println(corpus_decrypted.toJson(toJsonSettings));
-        System.out.println (corpus_encrypted_actual.toJson(toJsonSettings));
-
-        BsonDocument corpus_encrypted_expected = Util.bsonDocumentFromPath("./corpus/corpus-encrypted.json");
-
-        for (String field : corpus_encrypted_actual.keySet()) {
-            if (field.equals("_id") || field.equals("altname_aws") || field.equals("altname_local")) {
+        MongoCollection coll = client.getDatabase(dbName).getCollection("coll", BsonDocument.class);
+        BsonDocument corpus_encrypted_actual = rawVerify
+                ? (BsonDocument) coll.withDocumentClass(RawBsonDocument.class).find(new BsonDocument()).first()
+                : (BsonDocument) coll.find(new BsonDocument()).first();
+        /* Only walk the top-level fields of a raw document, leaving each field's subdocument undecoded. */
+        Map<String, BsonValue> actual_fields = rawVerify
+                ? RawFields.fields((RawBsonDocument) corpus_encrypted_actual)
+                : corpus_encrypted_actual;
+
+        CorpusIndex corpus_encrypted_expected = new CorpusIndex(Util.rawBsonDocumentFromPath("./corpus/corpus-encrypted.json"));
+
+        for (Map.Entry<String, BsonValue> entry : actual_fields.entrySet()) {
+            CorpusModel.Field field = model.field(entry.getKey());
+            if (field == null) {
                 continue;
             }
-
-            String kms = corpus_encrypted_actual.getDocument(field).getString("kms").getValue();
-            String type = corpus_encrypted_actual.getDocument(field).getString("type").getValue();
-            String algo = corpus_encrypted_actual.getDocument(field).getString("algo").getValue();
-            String method = corpus_encrypted_actual.getDocument(field).getString("method").getValue();
-            String identifier = corpus_encrypted_actual.getDocument(field).getString("identifier").getValue();
-            boolean allowed = corpus_encrypted_actual.getDocument(field).getBoolean("allowed").getValue();
-            BsonValue value = corpus_encrypted_actual.getDocument(field).get("value");
+            BsonValue value = entry.getValue().asDocument().get("value");
 
             // All deterministic fields are an exact match.
-            if (algo.equals("det")) {
-                deterministicCheck(value, kms, type, corpus_encrypted_expected);
+            if (field.algo == CorpusModel.Algo.DET) {
+                corpus_encrypted_expected.deterministicCheck(field, value, failures);
             }
 
-            if (algo.equals("rand") && allowed) {
-                randomCheck(value, field, corpus_encrypted_expected);
+            if (field.algo == CorpusModel.Algo.RAND && field.allowed) {
+                corpus_encrypted_expected.randomCheck(field.name, value, failures);
             }
 
-            if (allowed) {
-                BsonValue decrypted = client_encryption.decrypt(value.asBinary());
-                assert (decrypted.equals(corpus.getDocument(field).get("value")));
-            } else {
-                assert (corpus_encrypted_actual.getDocument(field).get("value").equals(corpus.getDocument(field).get("value")));
+            if (field.allowed) {
+                BsonValue decrypted = instrumentation.decrypt(client_encryption, value.asBinary());
+                if (!decrypted.equals(field.value)) {
+                    failures.add(field.name + ": decrypted value does not match corpus");
+                }
+            } else if (!value.equals(field.value)) {
+                failures.add(field.name + ": prohibited value was modified");
             }
         }
 
+        /* Rendering the documents as JSON is expensive, so only do it when asked to or when something failed. */
+        if (verbosity >= 2 || !failures.isEmpty()) {
+            JsonWriterSettings toJsonSettings = JsonWriterSettings.builder().outputMode(JsonMode.EXTENDED).build();
+            System.out.println(corpus.toJson(toJsonSettings));
+            System.out.println(corpus_decrypted.toJson(toJsonSettings));
+            System.out.println(corpus_encrypted_actual.toJson(toJsonSettings));
+        }
+        for (String failure : failures) {
+            System.out.println(failure);
+        }
+        Util.doAssert(failures.isEmpty());
     }
 
     private void run() {
         corpusTest(false);
         /* Step 9: run everything with a local schema. */
         corpusTest(true);
+        instrumentation.report();
     }
 
     public static void main(String[] args) {
-        new CorpusRunner().run();
+        Fixtures fixtures = Fixtures.fromEnv();
+        try {
+            new CorpusRunner("db", "admin.datakeys", fixtures,
+                    Util.intFromEnv("CORPUS_PARALLELISM", 1),
+                    System.getenv("CORPUS_PRECHECK") != null,
+                    System.getenv("CORPUS_RAW_VERIFY") != null,
+                    Util.intFromEnv("CORPUS_VERBOSITY", 1)).run();
+        } finally {
+            fixtures.close();
+        }
     }
 }
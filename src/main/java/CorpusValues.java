@@ -0,0 +1,139 @@
+import org.bson.*;
+import org.bson.types.Decimal128;
+import org.bson.types.ObjectId;
+
+import java.math.BigDecimal;
+import java.util.Random;
+
+/* Random BSON values for each corpus "type". */
+class CorpusValues {
+    private static final String ALPHABET = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";
+
+    static String randomString (Random random, int length) {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+        }
+        return sb.toString();
+    }
+
+    static byte[] randomBytes (Random random, int length) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    /* A random value of the corpus 'type' whose variable-length parts (strings, binaries, arrays) have 'size' elements. */
+    static BsonValue random (String type, Random random, int size) {
+        switch (type) {
+            case "double":
+                return new BsonDouble(random.nextDouble() * 1000);
+            case "string":
+                return new BsonString(randomString(random, size));
+            case "object":
+                return new BsonDocument("x", new BsonInt32(random.nextInt()));
+            case "array": {
+                BsonArray array = new BsonArray();
+                for (int i = 0; i < size; i++) {
+                    array.add(new BsonInt32(random.nextInt()));
+                }
+                return array;
+            }
+            case "binData=00":
+                return new BsonBinary(BsonBinarySubType.BINARY, randomBytes(random, size));
+            case "binData=04":
+                return new BsonBinary(BsonBinarySubType.UUID_STANDARD, randomBytes(random, 16));
+            case "undefined":
+                return new BsonUndefined();
+            case "objectId":
+                return new BsonObjectId(new ObjectId(randomBytes(random, 12)));
+            case "bool":
+                return BsonBoolean.valueOf(random.nextBoolean());
+            case "date":
+                return new BsonDateTime(random.nextLong());
+            case "null":
+                return BsonNull.VALUE;
+            case "regex":
+                return new BsonRegularExpression(randomString(random, size), "i");
+            case "dbPointer":
+                return new BsonDbPointer("db.example", new ObjectId(randomBytes(random, 12)));
+            case "javascript":
+                return new BsonJavaScript("x=" + random.nextInt());
+            case "symbol":
+                return new BsonSymbol(randomString(random, size));
+            case "javascriptWithScope":
+                return new BsonJavaScriptWithScope("x=" + random.nextInt(), new BsonDocument());
+            case "int":
+                return new BsonInt32(random.nextInt());
+            case "timestamp":
+                return new BsonTimestamp(random.nextInt() & Integer.MAX_VALUE, random.nextInt() & Integer.MAX_VALUE);
+            case "long":
+                return new BsonInt64(random.nextLong());
+            case "decimal":
+                return new BsonDecimal128(new Decimal128(BigDecimal.valueOf(random.nextLong(), random.nextInt(10))));
+            case "minKey":
+                return new BsonMinKey();
+            case "maxKey":
+                return new BsonMaxKey();
+            default:
+                throw new IllegalArgumentException("unknown type: " + type);
+        }
+    }
+
+    private static final double[] EDGE_DOUBLES = {0.0, -0.0, Double.MIN_VALUE, -Double.MIN_VALUE, Double.MIN_NORMAL,
+            Double.MAX_VALUE, -Double.MAX_VALUE, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NaN};
+    private static final Decimal128[] EDGE_DECIMALS = {Decimal128.POSITIVE_ZERO, Decimal128.NEGATIVE_ZERO,
+            Decimal128.POSITIVE_INFINITY, Decimal128.NEGATIVE_INFINITY, Decimal128.NaN, Decimal128.NEGATIVE_NaN,
+            Decimal128.parse("9.999999999999999999999999999999999E+6144"),
+            Decimal128.parse("-9.999999999999999999999999999999999E+6144"), Decimal128.parse("1E-6176")};
+    private static final long[] EDGE_LONGS = {0, 1, -1, Long.MIN_VALUE, Long.MAX_VALUE, Integer.MIN_VALUE,
+            Integer.MAX_VALUE};
+    private static final int[] EDGE_INTS = {0, 1, -1, Integer.MIN_VALUE, Integer.MAX_VALUE};
+
+    /*
+     * A boundary value of the corpus 'type': empty strings, binaries and arrays, or 'size' elements of them; the
+     * extremes of doubles, decimals and integers (including infinities, NaNs and negative zero); multi-byte strings.
+     * Types without boundaries get a random value as above.
+     */
+    static BsonValue edge (String type, Random random, int size) {
+        switch (type) {
+            case "double":
+                return new BsonDouble(EDGE_DOUBLES[random.nextInt(EDGE_DOUBLES.length)]);
+            case "decimal":
+                return new BsonDecimal128(EDGE_DECIMALS[random.nextInt(EDGE_DECIMALS.length)]);
+            case "string":
+            case "symbol": {
+                String value = random.nextBoolean() ? "" : multiByteString(random, size);
+                return type.equals("string") ? new BsonString(value) : new BsonSymbol(value);
+            }
+            case "object":
+                return new BsonDocument();
+            case "array":
+                return random.nextBoolean() ? new BsonArray() : random(type, random, size);
+            case "binData=00":
+                return new BsonBinary(BsonBinarySubType.BINARY, randomBytes(random, random.nextBoolean() ? 0 : size));
+            case "regex":
+                return new BsonRegularExpression(random.nextBoolean() ? "" : multiByteString(random, size), "");
+            case "date":
+                return new BsonDateTime(EDGE_LONGS[random.nextInt(EDGE_LONGS.length)]);
+            case "int":
+                return new BsonInt32(EDGE_INTS[random.nextInt(EDGE_INTS.length)]);
+            case "long":
+                return new BsonInt64(EDGE_LONGS[random.nextInt(EDGE_LONGS.length)]);
+            case "timestamp":
+                return new BsonTimestamp(EDGE_LONGS[random.nextInt(EDGE_LONGS.length)]);
+            default:
+                return random(type, random, size);
+        }
+    }
+
+    /* 'length' characters drawn from one to four UTF-8 byte encodings, without NULs (regexes cannot hold them). */
+    static String multiByteString (Random random, int length) {
+        StringBuilder sb = new StringBuilder(length);
+        int[] codePoints = {'a', 0xE9, 0x20AC, 0x1F600};
+        for (int i = 0; i < length; i++) {
+            sb.appendCodePoint(codePoints[random.nextInt(codePoints.length)]);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,101 @@
+import com.mongodb.ClientEncryptionSettings;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.model.vault.EncryptOptions;
+import com.mongodb.client.vault.ClientEncryption;
+import com.mongodb.client.vault.ClientEncryptions;
+import org.HdrHistogram.Histogram;
+import org.bson.*;
+
+import java.util.*;
+
+/*
+ * Compares plain ClientEncryption.encrypt with CachingClientEncryption on the explicit deterministic encryptions of
+ * CorpusRunner (every allowed local det field of corpus.json) and EndpointTest.expect_success (the string "test").
+ */
+public class EncryptCacheBenchmark {
+    private final int rounds;
+    private final long cacheSize;
+    private final long ttlMillis;
+
+    EncryptCacheBenchmark (int rounds, long cacheSize, long ttlMillis) {
+        this.rounds = rounds;
+        this.cacheSize = cacheSize;
+        this.ttlMillis = ttlMillis;
+    }
+
+    /* Encrypt every value 'rounds' times, building options per call as the prose tests do. */
+    private Histogram measure (ClientEncryption clientEncryption, List<BsonValue> values, int rounds) {
+        Histogram histogram = new Histogram(3600L * 1000 * 1000, 3);
+        for (int round = 0; round < rounds; round++) {
+            for (BsonValue value : values) {
+                long start = System.nanoTime();
+                clientEncryption.encrypt(value,
+                        new EncryptOptions("AEAD_AES_256_CBC_HMAC_SHA_512-Deterministic").keyId(Util.LOCAL_KEY_ID));
+                histogram.recordValue((System.nanoTime() - start) / 1000);
+            }
+        }
+        return histogram;
+    }
+
+    private void compare (String workload, ClientEncryption plain, List<BsonValue> values) {
+        CachingClientEncryption cached = new CachingClientEncryption(plain, cacheSize, ttlMillis);
+        for (BsonValue value : values) {
+            EncryptOptions opts = new EncryptOptions("AEAD_AES_256_CBC_HMAC_SHA_512-Deterministic").keyId(Util.LOCAL_KEY_ID);
+            Util.doAssert(cached.encrypt(value, opts).equals(plain.encrypt(value, opts)));
+        }
+        /* Warm up both paths before measuring. */
+        measure(plain, values, Math.max(1, rounds / 10));
+        measure(cached, values, Math.max(1, rounds / 10));
+
+        long start = System.nanoTime();
+        Histogram plainLatencies = measure(plain, values, rounds);
+        double plainSeconds = (System.nanoTime() - start) / 1e9;
+        long hits = cached.hitCount(), misses = cached.missCount();
+        start = System.nanoTime();
+        Histogram cachedLatencies = measure(cached, values, rounds);
+        double cachedSeconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.println(workload + " (" + values.size() + " values x " + rounds + " rounds)");
+        System.out.println("  plain:  " + Util.summarize(plainLatencies, plainSeconds));
+        System.out.println("  cached: " + Util.summarize(cachedLatencies, cachedSeconds)
+                + ", " + (cached.hitCount() - hits) + " hits, " + (cached.missCount() - misses) + " misses");
+    }
+
+    private void run () {
+        MongoClient client = MongoClients.create();
+        Util.resetKeyVault(client, "admin.datakeys", "./corpus/corpus-key-local.json");
+        ClientEncryptionSettings clientEncryptionSettings = ClientEncryptionSettings.builder()
+                .keyVaultMongoClientSettings(MongoClientSettings.builder().build())
+                .kmsProviders(Util.localKmsProviders())
+                .keyVaultNamespace("admin.datakeys")
+                .build();
+        ClientEncryption clientEncryption = ClientEncryptions.create(clientEncryptionSettings);
+
+        List<BsonValue> corpusValues = new ArrayList<>();
+        BsonDocument corpus = Util.bsonDocumentFromPath("./corpus/corpus.json");
+        for (Map.Entry<String, BsonValue> entry : corpus.entrySet()) {
+            if (!entry.getValue().isDocument()) {
+                continue;
+            }
+            BsonDocument subdoc = entry.getValue().asDocument();
+            if (subdoc.getString("kms").getValue().equals("local") && subdoc.getString("algo").getValue().equals("det")
+                    && subdoc.getString("method").getValue().equals("explicit")
+                    && subdoc.getString("identifier").getValue().equals("id") && subdoc.getBoolean("allowed").getValue()) {
+                corpusValues.add(subdoc.get("value"));
+            }
+        }
+        compare("CorpusRunner explicit det fields", clientEncryption, corpusValues);
+        compare("EndpointTest \"test\"", clientEncryption, Collections.<BsonValue>singletonList(new BsonString("test")));
+
+        clientEncryption.close();
+        client.close();
+    }
+
+    public static void main(String[] args) {
+        new EncryptCacheBenchmark(Util.intFromEnv("CACHE_ROUNDS", 1000),
+                Util.intFromEnv("CACHE_SIZE", 10000),
+                Util.intFromEnv("CACHE_TTL_MS", 0)).run();
+    }
+}
@@ -0,0 +1,59 @@
+import org.bson.BsonDocument;
+import org.bson.BsonType;
+import org.bson.BsonValue;
+
+import java.util.EnumSet;
+import java.util.Map;
+
+/*
+ * Which BSON types may be explicitly encrypted with each algorithm, so prohibited values can be rejected without a
+ * libmongocrypt round trip and an exception. The table starts from the spec rules and is checked against the
+ * "allowed" flags of a corpus.
+ */
+class EncryptionPolicy {
+    /* Types with a single possible value, which no algorithm may encrypt. */
+    private static final EnumSet<BsonType> PROHIBITED = EnumSet.of(
+            BsonType.MIN_KEY, BsonType.MAX_KEY, BsonType.UNDEFINED, BsonType.NULL);
+    /* Types deterministic encryption additionally prohibits. */
+    private static final EnumSet<BsonType> PROHIBITED_DETERMINISTIC = EnumSet.of(
+            BsonType.DOUBLE, BsonType.DECIMAL128, BsonType.DOCUMENT, BsonType.ARRAY, BsonType.BOOLEAN,
+            BsonType.JAVASCRIPT_WITH_SCOPE);
+
+    private final boolean[] randomAllowed = new boolean[BsonType.values().length];
+    private final boolean[] deterministicAllowed = new boolean[BsonType.values().length];
+
+    EncryptionPolicy () {
+        for (BsonType type : BsonType.values()) {
+            randomAllowed[type.ordinal()] = type != BsonType.END_OF_DOCUMENT && !PROHIBITED.contains(type);
+            deterministicAllowed[type.ordinal()] = randomAllowed[type.ordinal()] && !PROHIBITED_DETERMINISTIC.contains(type);
+        }
+    }
+
+    /* The spec policy, after checking that every entry of 'corpus' has the "allowed" flag it predicts. */
+    static EncryptionPolicy fromCorpus (BsonDocument corpus) {
+        EncryptionPolicy policy = new EncryptionPolicy();
+        for (Map.Entry<String, BsonValue> entry : corpus.entrySet()) {
+            if (!entry.getValue().isDocument()) {
+                continue;
+            }
+            BsonDocument subdoc = entry.getValue().asDocument();
+            boolean allowed = subdoc.getBoolean("allowed").getValue();
+            String algorithm = Util.algorithm(subdoc.getString("algo").getValue());
+            if (policy.allows(subdoc.get("value"), algorithm) != allowed) {
+                throw new IllegalStateException("policy disagrees with corpus for " + entry.getKey());
+            }
+        }
+        return policy;
+    }
+
+    boolean allows (BsonValue value, String algorithm) {
+        int type = value.getBsonType().ordinal();
+        if (algorithm.equals("AEAD_AES_256_CBC_HMAC_SHA_512-Deterministic")) {
+            return deterministicAllowed[type];
+        }
+        if (algorithm.equals("AEAD_AES_256_CBC_HMAC_SHA_512-Random")) {
+            return randomAllowed[type];
+        }
+        throw new IllegalArgumentException("unknown algorithm: " + algorithm);
+    }
+}
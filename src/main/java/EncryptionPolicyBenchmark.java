@@ -0,0 +1,111 @@
+import com.mongodb.ClientEncryptionSettings;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.model.vault.EncryptOptions;
+import com.mongodb.client.vault.ClientEncryption;
+import com.mongodb.client.vault.ClientEncryptions;
+import org.bson.*;
+
+import java.util.*;
+
+/*
+ * Checks EncryptionPolicy against the actual encrypt results of every local explicit corpus entry, then measures
+ * the throughput of a mixed-validity batch encrypted by catching exceptions versus by checking the policy first.
+ */
+public class EncryptionPolicyBenchmark {
+    private final int rounds;
+
+    EncryptionPolicyBenchmark (int rounds) {
+        this.rounds = rounds;
+    }
+
+    /* Encrypt every value of 'values', returning how many were rejected. Without a policy, rely on exceptions. */
+    private static int encryptBatch (ClientEncryption clientEncryption, EncryptionPolicy policy,
+                                     List<BsonValue> values, List<EncryptOptions> options) {
+        int rejected = 0;
+        for (int i = 0; i < values.size(); i++) {
+            if (policy != null && !policy.allows(values.get(i), options.get(i).getAlgorithm())) {
+                rejected++;
+                continue;
+            }
+            try {
+                clientEncryption.encrypt(values.get(i), options.get(i));
+            } catch (Exception e) {
+                rejected++;
+            }
+        }
+        return rejected;
+    }
+
+    private void run () {
+        MongoClient client = MongoClients.create();
+        Util.resetKeyVault(client, "admin.datakeys", "./corpus/corpus-key-local.json");
+        ClientEncryptionSettings clientEncryptionSettings = ClientEncryptionSettings.builder()
+                .keyVaultMongoClientSettings(MongoClientSettings.builder().build())
+                .kmsProviders(Util.localKmsProviders())
+                .keyVaultNamespace("admin.datakeys")
+                .build();
+        ClientEncryption clientEncryption = ClientEncryptions.create(clientEncryptionSettings);
+
+        BsonDocument corpus = Util.bsonDocumentFromPath("./corpus/corpus.json");
+        EncryptionPolicy policy = EncryptionPolicy.fromCorpus(corpus);
+
+        /* The batch is every local explicit entry, allowed or not. */
+        List<BsonValue> values = new ArrayList<>();
+        List<EncryptOptions> options = new ArrayList<>();
+        int mismatches = 0, prohibited = 0;
+        for (Map.Entry<String, BsonValue> entry : corpus.entrySet()) {
+            if (!entry.getValue().isDocument()) {
+                continue;
+            }
+            BsonDocument subdoc = entry.getValue().asDocument();
+            if (!subdoc.getString("kms").getValue().equals("local") || !subdoc.getString("method").getValue().equals("explicit")) {
+                continue;
+            }
+            BsonValue value = subdoc.get("value");
+            EncryptOptions opts = new EncryptOptions(Util.algorithm(subdoc.getString("algo").getValue())).keyId(Util.LOCAL_KEY_ID);
+            boolean encrypted = true;
+            try {
+                clientEncryption.encrypt(value, opts);
+            } catch (Exception e) {
+                encrypted = false;
+                prohibited++;
+            }
+            if (encrypted != policy.allows(value, opts.getAlgorithm())) {
+                System.out.println("policy disagrees with encrypt for " + entry.getKey());
+                mismatches++;
+            }
+            values.add(value);
+            options.add(opts);
+        }
+        System.out.println(String.format("policy checked against %d encrypt calls, %d prohibited, %d mismatches",
+                values.size(), prohibited, mismatches));
+        Util.doAssert(mismatches == 0);
+
+        encryptBatch(clientEncryption, null, values, options);
+        encryptBatch(clientEncryption, policy, values, options);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            encryptBatch(clientEncryption, null, values, options);
+        }
+        double catchSeconds = (System.nanoTime() - start) / 1e9;
+        start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            encryptBatch(clientEncryption, policy, values, options);
+        }
+        double policySeconds = (System.nanoTime() - start) / 1e9;
+
+        long total = (long) rounds * values.size();
+        System.out.println(String.format("catch exceptions: %.0f values/s", total / catchSeconds));
+        System.out.println(String.format("policy precheck:  %.0f values/s (%.2fx)", total / policySeconds, catchSeconds / policySeconds));
+
+        clientEncryption.close();
+        client.close();
+    }
+
+    public static void main(String[] args) {
+        new EncryptionPolicyBenchmark(Util.intFromEnv("POLICY_ROUNDS", 200)).run();
+    }
+}
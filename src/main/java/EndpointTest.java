@@ -2,26 +2,30 @@ import com.mongodb.AutoEncryptionSettings;
 import com.mongodb.ClientEncryptionSettings;
 import com.mongodb.MongoClientSettings;
 import com.mongodb.MongoException;
-import com.mongodb.client.MongoClients;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
 import com.mongodb.client.model.vault.DataKeyOptions;
 import com.mongodb.client.model.vault.EncryptOptions;
 import com.mongodb.client.vault.ClientEncryption;
-import com.mongodb.client.vault.ClientEncryptions;
 import com.mongodb.crypt.capi.MongoCryptException;
 import org.bson.*;
-import org.bson.codecs.UuidCodec;
 import org.bson.codecs.configuration.CodecRegistry;
 
 import java.util.*;
 
-import static org.bson.codecs.configuration.CodecRegistries.fromCodecs;
-import static org.bson.codecs.configuration.CodecRegistries.fromRegistries;
-
 public class EndpointTest {
     private ClientEncryption clientEncryption;
+    private final String keyVaultNamespace;
+    /* Creates, shares and closes the clients. */
+    private final Fixtures fixtures;
+    private final Instrumentation instrumentation;
+
+    EndpointTest (String keyVaultNamespace, Fixtures fixtures) {
+        this.keyVaultNamespace = keyVaultNamespace;
+        this.fixtures = fixtures;
+        this.instrumentation = Instrumentation.fromEnv(keyVaultNamespace);
+    }
 
     private void expect_failure (DataKeyOptions opts, String errorMessage) {
         String actualErrorMessage = "";
@@ -33,20 +37,25 @@ public class EndpointTest {
         Util.doAssert(actualErrorMessage.contains(errorMessage));
     }
     private void expect_success (DataKeyOptions opts) {
-        BsonBinary uuid = clientEncryption.createDataKey("aws", opts);
+        BsonBinary uuid;
+        Instrumentation.Span span = instrumentation.start("createDataKey");
+        try {
+            uuid = clientEncryption.createDataKey("aws", opts);
+        } finally {
+            span.end();
+        }
 
         /* Encrypt and decrypt something. */
-        BsonBinary encrypted = clientEncryption.encrypt (
+        BsonBinary encrypted = instrumentation.encrypt (clientEncryption,
                 new BsonString("test"),
                 new EncryptOptions("AEAD_AES_256_CBC_HMAC_SHA_512-Deterministic").keyId(uuid));
-        BsonValue value = clientEncryption.decrypt (encrypted);
+        BsonValue value = instrumentation.decrypt (clientEncryption, encrypted);
         Util.doAssert (value.asString().getValue().equals("test"));
     }
 
-    private void run() {
+    void run() {
         MongoClientSettings.Builder clientSettingsBuilder = MongoClientSettings.builder();
-        CodecRegistry codecRegistry = fromRegistries(
-                fromCodecs(new UuidCodec(UuidRepresentation.STANDARD)), MongoClientSettings.getDefaultCodecRegistry());
+        CodecRegistry codecRegistry = Fixtures.CODEC_REGISTRY;
 
         Map kmsProviders = new HashMap();
         Map awsCreds = new HashMap();
@@ -59,12 +68,12 @@ public class EndpointTest {
         awsCreds.put("secretAccessKey", System.getenv("AWS_SECRET_ACCESS_KEY"));
         kmsProviders.put ("aws", awsCreds);
 
-        MongoClientSettings clientSettings = MongoClientSettings.builder()
+        MongoClientSettings clientSettings = instrumentation.apply(MongoClientSettings.builder())
                 .codecRegistry(codecRegistry)
                 .build();
 
-        ClientEncryptionSettings clientEncryptionSettings = ClientEncryptionSettings.builder().kmsProviders(kmsProviders).keyVaultNamespace("admin.datakey").keyVaultMongoClientSettings(clientSettings).build();
-        this.clientEncryption = ClientEncryptions.create(clientEncryptionSettings);
+        ClientEncryptionSettings clientEncryptionSettings = ClientEncryptionSettings.builder().kmsProviders(kmsProviders).keyVaultNamespace(keyVaultNamespace).keyVaultMongoClientSettings(clientSettings).build();
+        this.clientEncryption = fixtures.clientEncryption(clientEncryptionSettings);
 
         /* No endpoint, should succeed. */
         DataKeyOptions dataKeyOptions;
@@ -75,7 +84,6 @@ public class EndpointTest {
                         .append("region", new BsonString("us-east-1")));
         expect_success(dataKeyOptions);
 
-
         /* Endpoint same as default, should still succeed. */
         dataKeyOptions = new DataKeyOptions().
                 masterKey(new BsonDocument()
@@ -100,9 +108,15 @@ public class EndpointTest {
                         .append("region", new BsonString("us-east-1"))
                         .append ("endpoint", new BsonString("example.com")));
         expect_failure(dataKeyOptions, "Got parse error");
+        instrumentation.report();
     }
 
     public static void main(String[] args) {
-        new EndpointTest().run();
+        Fixtures fixtures = Fixtures.fromEnv();
+        try {
+            new EndpointTest("admin.datakey", fixtures).run();
+        } finally {
+            fixtures.close();
+        }
     }
 }
@@ -0,0 +1,222 @@
+import com.mongodb.AutoEncryptionSettings;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Indexes;
+import org.HdrHistogram.Histogram;
+import org.bson.*;
+
+import java.util.*;
+
+/*
+ * Equality lookups on the deterministically encrypted corpus fields of db.coll, compared with the same lookups on an
+ * unencrypted copy in db.coll_plain, first with only the _id index and then with an index on every "<field>.value".
+ *
+ * Each query is timed five ways:
+ *   plain:     unencrypted client, plaintext filter on coll_plain.
+ *   server:    unencrypted client, ciphertext filter on coll, full documents (no crypto at all).
+ *   server_id: as server, projected to _id.
+ *   auto:      auto-encrypting client, plaintext filter on coll, full documents.
+ *   auto_id:   as auto, projected to _id, so there is nothing to decrypt.
+ * Query encryption is auto_id - server_id, and result decryption is (auto - server) - (auto_id - server_id).
+ */
+public class EqualityQueryBenchmark {
+    private static final String DETERMINISTIC = "AEAD_AES_256_CBC_HMAC_SHA_512-Deterministic";
+
+    private final int docs;
+    private final int targets;
+    private final int queries;
+    private final Set<String> kms;
+
+    EqualityQueryBenchmark (int docs, int targets, int queries, Set<String> kms) {
+        this.docs = docs;
+        this.targets = targets;
+        this.queries = queries;
+        this.kms = kms;
+    }
+
+    /* A loaded document to look up: its _id, and the plaintext and stored ciphertext of each deterministic field. */
+    private static class Target {
+        final BsonValue id;
+        final Map<String, BsonValue> plaintexts = new HashMap<>();
+        final Map<String, BsonValue> ciphertexts = new HashMap<>();
+
+        Target (BsonValue id) {
+            this.id = id;
+        }
+    }
+
+    private static class Latencies {
+        final Map<String, Histogram> histograms = new LinkedHashMap<>();
+
+        void record (String path, long nanos) {
+            Histogram histogram = histograms.get(path);
+            if (histogram == null) {
+                histogram = new Histogram(60L * 1000 * 1000, 3);
+                histograms.put(path, histogram);
+            }
+            histogram.recordValue(nanos / 1000);
+        }
+
+        double mean (String path) {
+            return histograms.get(path).getMean();
+        }
+    }
+
+    private Map<String, Map<String, Object>> kmsProviders () {
+        Map<String, Map<String, Object>> kmsProviders = Util.localKmsProviders();
+        if (kms.contains("aws")) {
+            if (System.getenv("AWS_ACCESS_KEY_ID") == null || System.getenv("AWS_SECRET_ACCESS_KEY") == null) {
+                throw new IllegalArgumentException("no aws creds set");
+            }
+            Map<String, Object> awsCreds = new HashMap<>();
+            awsCreds.put("accessKeyId", System.getenv("AWS_ACCESS_KEY_ID"));
+            awsCreds.put("secretAccessKey", System.getenv("AWS_SECRET_ACCESS_KEY"));
+            kmsProviders.put("aws", awsCreds);
+        }
+        return kmsProviders;
+    }
+
+    private void measure (String label, List<String> detFields, List<Target> loaded,
+                          MongoCollection<BsonDocument> coll, MongoCollection<BsonDocument> collPlain,
+                          MongoCollection<BsonDocument> collEncrypted) {
+        Latencies latencies = new Latencies();
+        BsonDocument idOnly = new BsonDocument("_id", new BsonInt32(1));
+        Random random = new Random(0);
+        for (int i = 0; i < queries; i++) {
+            Target target = loaded.get(random.nextInt(loaded.size()));
+            String field = detFields.get(random.nextInt(detFields.size()));
+            String path = field + ".value";
+            BsonValue plaintext = target.plaintexts.get(field);
+            BsonValue ciphertext = target.ciphertexts.get(field);
+
+            long start = System.nanoTime();
+            BsonDocument found = collPlain.find(Filters.eq(path, plaintext)).first();
+            latencies.record("plain", System.nanoTime() - start);
+            Util.doAssert(found != null);
+
+            start = System.nanoTime();
+            found = coll.find(Filters.eq(path, ciphertext)).first();
+            latencies.record("server", System.nanoTime() - start);
+            Util.doAssert(found != null);
+
+            start = System.nanoTime();
+            found = coll.find(Filters.eq(path, ciphertext)).projection(idOnly).first();
+            latencies.record("server_id", System.nanoTime() - start);
+            Util.doAssert(found != null);
+
+            start = System.nanoTime();
+            found = collEncrypted.find(Filters.eq(path, plaintext)).first();
+            latencies.record("auto", System.nanoTime() - start);
+            Util.doAssert(found != null && found.getDocument(field).get("value").equals(plaintext));
+
+            start = System.nanoTime();
+            found = collEncrypted.find(Filters.eq(path, plaintext)).projection(idOnly).first();
+            latencies.record("auto_id", System.nanoTime() - start);
+            Util.doAssert(found != null);
+        }
+
+        System.out.println(label + ":");
+        for (Map.Entry<String, Histogram> entry : latencies.histograms.entrySet()) {
+            System.out.println(String.format("  %-10s mean %8.1f us, p50 %6d us, p99 %6d us", entry.getKey(),
+                    entry.getValue().getMean(), entry.getValue().getValueAtPercentile(50),
+                    entry.getValue().getValueAtPercentile(99)));
+        }
+        double queryEncryption = latencies.mean("auto_id") - latencies.mean("server_id");
+        double resultDecryption = (latencies.mean("auto") - latencies.mean("server")) - queryEncryption;
+        System.out.println(String.format(
+                "  encrypted vs plain: +%.1f us (query encryption %.1f us, result decryption %.1f us, server %+.1f us)",
+                latencies.mean("auto") - latencies.mean("plain"), queryEncryption, resultDecryption,
+                latencies.mean("server") - latencies.mean("plain")));
+    }
+
+    private void run () {
+        BsonDocument corpus = Util.bsonDocumentFromPath("./corpus/corpus.json");
+        BsonDocument schema = Util.bsonDocumentFromPath("./corpus/corpus-schema.json");
+
+        /*
+         * The automatically encrypted deterministic fields for the chosen KMS providers. Regex fields are left out,
+         * since a regex in a plaintext filter is a pattern match rather than an equality match.
+         */
+        List<String> detFields = new ArrayList<>();
+        for (Map.Entry<String, BsonValue> entry : schema.getDocument("properties").entrySet()) {
+            BsonDocument valueSchema = entry.getValue().asDocument().getDocument("properties").getDocument("value");
+            BsonDocument corpusEntry = corpus.getDocument(entry.getKey());
+            if (valueSchema.containsKey("encrypt")
+                    && valueSchema.getDocument("encrypt").getString("algorithm").getValue().equals(DETERMINISTIC)
+                    && kms.contains(corpusEntry.getString("kms").getValue())
+                    && !corpusEntry.getString("type").getValue().equals("regex")) {
+                detFields.add(entry.getKey());
+            }
+        }
+
+        MongoClient client = MongoClients.create(MongoClientSettings.builder().codecRegistry(Fixtures.CODEC_REGISTRY).build());
+        MongoCollection<BsonDocument> coll = client.getDatabase("db").getCollection("coll", BsonDocument.class);
+        MongoCollection<BsonDocument> collPlain = client.getDatabase("db").getCollection("coll_plain", BsonDocument.class);
+        coll.drop();
+        collPlain.drop();
+        Util.resetKeyVault(client, "admin.datakeys", "./corpus/corpus-key-aws.json", "./corpus/corpus-key-local.json");
+
+        Map<String, BsonDocument> schemaMap = new HashMap<>();
+        schemaMap.put("db.coll", schema);
+        MongoClient client_encrypted = MongoClients.create(MongoClientSettings.builder()
+                .codecRegistry(Fixtures.CODEC_REGISTRY)
+                .autoEncryptionSettings(AutoEncryptionSettings.builder()
+                        .keyVaultNamespace("admin.datakeys")
+                        .kmsProviders(kmsProviders())
+                        .schemaMap(schemaMap)
+                        .build())
+                .build());
+        MongoCollection<BsonDocument> collEncrypted = client_encrypted.getDatabase("db").getCollection("coll", BsonDocument.class);
+
+        /* Load the same documents into both collections, keeping every (docs / targets)-th one to look up. */
+        SyntheticCorpus generator = new SyntheticCorpus(corpus, schema, kms, docs, 8, 0);
+        List<Target> loaded = new ArrayList<>();
+        int every = Math.max(1, docs / targets);
+        List<RawBsonDocument> batch = new ArrayList<>();
+        for (int i = 0; generator.hasNext(); i++) {
+            RawBsonDocument doc = generator.next();
+            if (i % every == 0 && loaded.size() < targets) {
+                Target target = new Target(doc.get("_id"));
+                for (String field : detFields) {
+                    target.plaintexts.put(field, doc.getDocument(field).get("value"));
+                }
+                loaded.add(target);
+            }
+            batch.add(doc);
+            if (batch.size() == 1000 || !generator.hasNext()) {
+                collEncrypted.withDocumentClass(RawBsonDocument.class).insertMany(batch);
+                collPlain.withDocumentClass(RawBsonDocument.class).insertMany(batch);
+                batch.clear();
+            }
+        }
+        for (Target target : loaded) {
+            BsonDocument stored = coll.find(Filters.eq("_id", target.id)).first();
+            for (String field : detFields) {
+                target.ciphertexts.put(field, stored.getDocument(field).get("value"));
+            }
+        }
+        System.out.println(String.format("%d documents, %d deterministic fields, %d queries over %d target documents",
+                docs, detFields.size(), queries, loaded.size()));
+
+        measure("_id index only", detFields, loaded, coll, collPlain, collEncrypted);
+        for (String field : detFields) {
+            coll.createIndex(Indexes.ascending(field + ".value"));
+            collPlain.createIndex(Indexes.ascending(field + ".value"));
+        }
+        measure("indexed deterministic fields", detFields, loaded, coll, collPlain, collEncrypted);
+
+        client_encrypted.close();
+        client.close();
+    }
+
+    public static void main(String[] args) {
+        String kms = System.getenv("QUERY_KMS");
+        new EqualityQueryBenchmark(Util.intFromEnv("QUERY_DOCS", 10000),
+                Util.intFromEnv("QUERY_TARGETS", 1000),
+                Util.intFromEnv("QUERY_COUNT", 2000),
+                new HashSet<>(Arrays.asList((kms == null ? "local" : kms).split(",")))).run();
+    }
+}
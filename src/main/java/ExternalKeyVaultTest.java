@@ -1,40 +1,42 @@
 import com.mongodb.*;
-import com.mongodb.client.MongoClients;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
 import com.mongodb.client.model.vault.EncryptOptions;
 import com.mongodb.client.vault.ClientEncryption;
-import com.mongodb.client.vault.ClientEncryptions;
 import org.bson.*;
-import org.bson.codecs.UuidCodec;
 import org.bson.codecs.configuration.CodecRegistry;
 import org.bson.json.JsonMode;
 import org.bson.json.JsonWriterSettings;
 import java.util.*;
 
-import static org.bson.codecs.configuration.CodecRegistries.fromCodecs;
-import static org.bson.codecs.configuration.CodecRegistries.fromRegistries;
-
 public class ExternalKeyVaultTest {
     private MongoClient client, client_encrypted;
     private ClientEncryption client_encryption;
+    /* Database holding "coll", and the key vault namespace, so concurrent runs can be isolated. */
+    private final String dbName;
+    private final String keyVaultNamespace;
+    /* Creates, shares and closes the clients. */
+    private final Fixtures fixtures;
+    private final Instrumentation instrumentation;
+
+    ExternalKeyVaultTest (String dbName, String keyVaultNamespace, Fixtures fixtures) {
+        this.dbName = dbName;
+        this.keyVaultNamespace = keyVaultNamespace;
+        this.fixtures = fixtures;
+        this.instrumentation = Instrumentation.fromEnv(keyVaultNamespace);
+    }
 
-    private void runAuth (boolean withExternalKeyVault) {
+    void runAuth (boolean withExternalKeyVault) {
         MongoClientSettings.Builder clientSettingsBuilder = MongoClientSettings.builder();
         /* TODO: figure out how this codec magic works */
-        CodecRegistry codecRegistry = fromRegistries(
-                fromCodecs(new UuidCodec(UuidRepresentation.STANDARD)), MongoClientSettings.getDefaultCodecRegistry());
+        CodecRegistry codecRegistry = Fixtures.CODEC_REGISTRY;
         clientSettingsBuilder.codecRegistry(codecRegistry);
         MongoClientSettings clientSettings = clientSettingsBuilder.build();
 
         /* Step 1: create unencrypted client and recreate keys collection */
-        this.client = MongoClients.create(clientSettings);
-        MongoDatabase db = client.getDatabase("db");
-        MongoDatabase admin = client.getDatabase("admin");
-        MongoCollection datakeys = admin.getCollection("datakeys", BsonDocument.class);
-        datakeys.drop();
-        datakeys.insertOne(Util.bsonDocumentFromPath("./external/external-key.json"));
+        this.client = fixtures.client(clientSettings);
+        Util.resetKeyVault(client, keyVaultNamespace, "./external/external-key.json");
 
         /* Step 2: create encryption objects. */
         Map kmsProviders = new HashMap();
@@ -44,14 +46,14 @@ public class ExternalKeyVaultTest {
         byte[] localMasterkeyBytes = Base64.getDecoder().decode(System.getenv("LOCAL_MASTERKEY"));
         localMasterkey.put("key", localMasterkeyBytes);
         kmsProviders.put("local", localMasterkey);
-        schemaMap.put("db.coll", Util.bsonDocumentFromPath("./external/external-schema.json"));
+        schemaMap.put(dbName + ".coll", Util.bsonDocumentFromPath("./external/external-schema.json"));
 
-        MongoClientSettings externalClientSettings =  MongoClientSettings.builder()
+        MongoClientSettings externalClientSettings =  instrumentation.apply(MongoClientSettings.builder())
                 .codecRegistry(codecRegistry)
                 .credential(MongoCredential.createCredential("fake-user", "admin","fake-pwd".toCharArray())).build();
 
-        AutoEncryptionSettings.Builder autoEncryptionSettingsBuilder = AutoEncryptionSettings.builder()
-                .keyVaultNamespace("admin.datakeys")
+        AutoEncryptionSettings.Builder autoEncryptionSettingsBuilder = fixtures.autoEncryptionSettingsBuilder()
+                .keyVaultNamespace(keyVaultNamespace)
                 .kmsProviders(kmsProviders)
                 .schemaMap(schemaMap);
         if (withExternalKeyVault) {
@@ -60,31 +62,34 @@ public class ExternalKeyVaultTest {
 
         AutoEncryptionSettings autoEncryptionSettings = autoEncryptionSettingsBuilder.build();
 
-        clientSettings = MongoClientSettings.builder()
+        clientSettings = instrumentation.apply(MongoClientSettings.builder())
                 .codecRegistry(codecRegistry)
                 .autoEncryptionSettings(autoEncryptionSettings)
                 .build();
-        this.client_encrypted = MongoClients.create (clientSettings);
+        this.client_encrypted = fixtures.client(clientSettings);
 
         ClientEncryptionSettings.Builder clientEncryptionSettingsBuilder = ClientEncryptionSettings.builder().
-                keyVaultMongoClientSettings(MongoClientSettings.builder().build())
+                keyVaultMongoClientSettings(instrumentation.apply(MongoClientSettings.builder()).build())
                 .kmsProviders(kmsProviders)
-                .keyVaultNamespace("admin.datakeys");
+                .keyVaultNamespace(keyVaultNamespace);
 
         if (withExternalKeyVault) {
             clientEncryptionSettingsBuilder.keyVaultMongoClientSettings(externalClientSettings);
         }
 
         ClientEncryptionSettings clientEncryptionSettings = clientEncryptionSettingsBuilder.build();
-        this.client_encryption = ClientEncryptions.create (clientEncryptionSettings);
+        this.client_encryption = fixtures.clientEncryption(clientEncryptionSettings);
 
         boolean authExceptionThrown = false;
-        MongoCollection coll = this.client_encrypted.getDatabase("db")
+        MongoCollection coll = this.client_encrypted.getDatabase(dbName)
                 .getCollection("coll", BsonDocument.class);
+        Instrumentation.Span span = instrumentation.start("insert");
         try {
             coll.insertOne(new BsonDocument().append("encrypted", new BsonString("test")));
         } catch (MongoSecurityException mse) {
             authExceptionThrown = true;
+        } finally {
+            span.end();
         }
         Util.doAssert (authExceptionThrown == withExternalKeyVault);
 
@@ -92,7 +97,7 @@ public class ExternalKeyVaultTest {
                 .keyId(new BsonBinary(BsonBinarySubType.UUID_STANDARD, Base64.getDecoder().decode("LOCALAAAAAAAAAAAAAAAAA==")));
         authExceptionThrown = false;
         try {
-            client_encryption.encrypt(new BsonString("test"), encryptOptions);
+            instrumentation.encrypt(client_encryption, new BsonString("test"), encryptOptions);
         } catch (MongoSecurityException mse) {
             authExceptionThrown = true;
         }
@@ -102,9 +107,15 @@ public class ExternalKeyVaultTest {
     private void run () {
         runAuth (false);
         runAuth (true);
+        instrumentation.report();
     }
 
     public static void main(String[] args) {
-        new ExternalKeyVaultTest().run();
+        Fixtures fixtures = Fixtures.fromEnv();
+        try {
+            new ExternalKeyVaultTest("db", "admin.datakeys", fixtures).run();
+        } finally {
+            fixtures.close();
+        }
     }
 }
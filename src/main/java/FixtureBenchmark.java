@@ -0,0 +1,47 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/*
+ * Compares running the corpus and external key vault tests repeatedly with and without client pooling.
+ * For each mode it reports the wall time, the time spent creating clients, live and peak thread counts and the
+ * resident set size before Fixtures closes everything. RSS rarely shrinks after a mode finishes, so run one mode per
+ * JVM (FIXTURE_BENCH_MODES=pooled or unpooled) for a clean memory comparison.
+ */
+public class FixtureBenchmark {
+    private final int rounds;
+
+    FixtureBenchmark (int rounds) {
+        this.rounds = rounds;
+    }
+
+    private void run (boolean pooled) {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        threads.resetPeakThreadCount();
+        Fixtures fixtures = new Fixtures(pooled);
+        long start = System.nanoTime();
+        try {
+            for (int i = 0; i < rounds; i++) {
+                CorpusRunner corpusRunner = new CorpusRunner("db", "admin.datakeys", fixtures, 1, false, false, 0);
+                corpusRunner.corpusTest(false);
+                corpusRunner.corpusTest(true);
+                new ExternalKeyVaultTest("db", "admin.datakeys", fixtures).runAuth(false);
+            }
+            System.out.println(String.format("%d rounds in %.2f s, %s",
+                    rounds, (System.nanoTime() - start) / 1e9, fixtures.report()));
+        } finally {
+            fixtures.close();
+        }
+        System.out.println(String.format("after close: %d live threads", threads.getThreadCount()));
+    }
+
+    public static void main(String[] args) {
+        String modes = System.getenv("FIXTURE_BENCH_MODES");
+        FixtureBenchmark benchmark = new FixtureBenchmark(Util.intFromEnv("FIXTURE_ROUNDS", 5));
+        for (String mode : (modes == null ? "unpooled,pooled" : modes).split(",")) {
+            if (!mode.equals("pooled") && !mode.equals("unpooled")) {
+                throw new IllegalArgumentException("unknown mode: " + mode);
+            }
+            benchmark.run(mode.equals("pooled"));
+        }
+    }
+}
@@ -0,0 +1,208 @@
+import com.mongodb.AutoEncryptionSettings;
+import com.mongodb.ClientEncryptionSettings;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.vault.ClientEncryption;
+import com.mongodb.client.vault.ClientEncryptions;
+import org.bson.UuidRepresentation;
+import org.bson.codecs.UuidCodec;
+import org.bson.codecs.configuration.CodecRegistry;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.bson.codecs.configuration.CodecRegistries.fromCodecs;
+import static org.bson.codecs.configuration.CodecRegistries.fromRegistries;
+
+/*
+ * Creates MongoClients and ClientEncryptions for the tests and closes all of them in close().
+ * When pooled, an instance is shared by every caller passing equivalent settings: the same codec registry and
+ * command listeners (compared by identity, so use CODEC_REGISTRY), credential, hosts, and for auto encryption the
+ * key vault namespace, KMS providers, schema map, extra options and key vault client settings.
+ * When not pooled, every call creates a new instance, which is how the tests behaved before.
+ * Auto-encrypting clients built from autoEncryptionSettingsBuilder() use the pre-spawned mongocryptd, if any.
+ */
+class Fixtures implements Closeable {
+    static final CodecRegistry CODEC_REGISTRY = fromRegistries(
+            fromCodecs(new UuidCodec(UuidRepresentation.STANDARD)), MongoClientSettings.getDefaultCodecRegistry());
+
+    private final boolean pooled;
+    private final Map<List<Object>, Object> cache = new HashMap<>();
+    /* Every MongoClient and ClientEncryption created, in creation order. */
+    private final List<Object> created = new ArrayList<>();
+    private final AtomicLong createNanos = new AtomicLong();
+    private final AtomicLong reused = new AtomicLong();
+    /* Started before any client, or null to let the driver spawn mongocryptd on first use. */
+    private final Mongocryptd mongocryptd;
+
+    Fixtures (boolean pooled) {
+        this(pooled, null);
+    }
+
+    Fixtures (boolean pooled, Mongocryptd mongocryptd) {
+        this.pooled = pooled;
+        this.mongocryptd = mongocryptd;
+    }
+
+    /* Pooled unless FIXTURES_POOLED is 0, with a pre-spawned mongocryptd if MONGOCRYPTD_PRESPAWN is set. */
+    static Fixtures fromEnv () {
+        return new Fixtures(Util.intFromEnv("FIXTURES_POOLED", 1) != 0, Mongocryptd.fromEnv());
+    }
+
+    /* A builder for the tests' auto encryption settings, pointed at the pre-spawned mongocryptd if there is one. */
+    AutoEncryptionSettings.Builder autoEncryptionSettingsBuilder () {
+        AutoEncryptionSettings.Builder builder = AutoEncryptionSettings.builder();
+        if (mongocryptd != null) {
+            builder.extraOptions(mongocryptd.extraOptions());
+        }
+        return builder;
+    }
+
+    private interface Factory {
+        Object create ();
+    }
+
+    MongoClient client (final MongoClientSettings settings) {
+        return (MongoClient) get(key(settings), new Factory() {
+            @Override
+            public Object create () {
+                return MongoClients.create(settings);
+            }
+        });
+    }
+
+    ClientEncryption clientEncryption (final ClientEncryptionSettings settings) {
+        List<Object> key = Arrays.asList("ClientEncryption", settings.getKeyVaultNamespace(),
+                canonical(settings.getKmsProviders()), key(settings.getKeyVaultMongoClientSettings()));
+        return (ClientEncryption) get(key, new Factory() {
+            @Override
+            public Object create () {
+                return ClientEncryptions.create(settings);
+            }
+        });
+    }
+
+    /*
+     * Creation happens under the lock, so suites starting at once wait for one shared instance instead of each
+     * creating their own.
+     */
+    private synchronized Object get (List<Object> key, Factory factory) {
+        Object instance = pooled ? cache.get(key) : null;
+        if (instance != null) {
+            reused.incrementAndGet();
+            return instance;
+        }
+        long start = System.nanoTime();
+        instance = factory.create();
+        createNanos.addAndGet(System.nanoTime() - start);
+        created.add(instance);
+        if (pooled) {
+            cache.put(key, instance);
+        }
+        return instance;
+    }
+
+    /* Close everything created, newest first, so auto-encrypting clients close before clients they may use. */
+    @Override
+    public synchronized void close () {
+        for (int i = created.size() - 1; i >= 0; i--) {
+            Object instance = created.get(i);
+            if (instance instanceof MongoClient) {
+                ((MongoClient) instance).close();
+            } else {
+                ((ClientEncryption) instance).close();
+            }
+        }
+        created.clear();
+        cache.clear();
+        if (mongocryptd != null) {
+            mongocryptd.close();
+        }
+    }
+
+    /* Instances created, the time spent creating them, and calls served from the pool. */
+    synchronized String report () {
+        String report = String.format("%s: %d created in %.0f ms, %d reused, %d live threads (peak %d), RSS %s",
+                pooled ? "pooled" : "unpooled", created.size(), createNanos.get() / 1e6, reused.get(),
+                ManagementFactory.getThreadMXBean().getThreadCount(),
+                ManagementFactory.getThreadMXBean().getPeakThreadCount(), residentSetSize());
+        return mongocryptd == null ? report : report + "\n" + mongocryptd.report();
+    }
+
+    /* Resident set size from /proc, which is only available on Linux. */
+    static String residentSetSize () {
+        Path status = Paths.get("/proc/self/status");
+        try {
+            for (String line : Files.readAllLines(status, StandardCharsets.UTF_8)) {
+                if (line.startsWith("VmRSS:")) {
+                    return line.substring("VmRSS:".length()).trim();
+                }
+            }
+        } catch (IOException ioe) {
+            /* Not Linux. */
+        }
+        return "unknown";
+    }
+
+    private static List<Object> key (MongoClientSettings settings) {
+        if (settings == null) {
+            return null;
+        }
+        AutoEncryptionSettings auto = settings.getAutoEncryptionSettings();
+        List<Object> autoKey = auto == null ? null : Arrays.asList(auto.getKeyVaultNamespace(),
+                canonical(auto.getKmsProviders()), auto.getSchemaMap(), auto.getExtraOptions(),
+                auto.isBypassAutoEncryption(), key(auto.getKeyVaultMongoClientSettings()));
+        return Arrays.asList("MongoClient", new Identity(settings.getCodecRegistry()),
+                identities(settings.getCommandListeners()), settings.getCredential(),
+                settings.getClusterSettings().getHosts(), autoKey);
+    }
+
+    /* KMS provider maps hold byte[] keys, which only compare by identity, so compare them as Base64 instead. */
+    private static Object canonical (Object value) {
+        if (value instanceof byte[]) {
+            return Base64.getEncoder().encodeToString((byte[]) value);
+        }
+        if (value instanceof Map) {
+            Map<Object, Object> canonical = new HashMap<>();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                canonical.put(entry.getKey(), canonical(entry.getValue()));
+            }
+            return canonical;
+        }
+        return value;
+    }
+
+    private static List<Identity> identities (List<?> values) {
+        List<Identity> identities = new ArrayList<>();
+        for (Object value : values) {
+            identities.add(new Identity(value));
+        }
+        return identities;
+    }
+
+    private static class Identity {
+        final Object value;
+
+        Identity (Object value) {
+            this.value = value;
+        }
+
+        @Override
+        public boolean equals (Object other) {
+            return other instanceof Identity && ((Identity) other).value == value;
+        }
+
+        @Override
+        public int hashCode () {
+            return System.identityHashCode(value);
+        }
+    }
+}
@@ -0,0 +1,301 @@
+import com.mongodb.AutoEncryptionSettings;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+import org.bson.*;
+import org.bson.codecs.BsonDocumentCodec;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Models how much encryption grows documents, indexes and insert traffic, and checks the model.
+ *
+ * An encrypted value is stored as a binary of subtype 6 holding: the algorithm byte, the 16-byte key id, the original
+ * BSON type byte, a 16-byte IV, the AES-256-CBC encryption of the value bytes (padded to the next multiple of 16,
+ * always adding at least one byte), and a 32-byte HMAC. As a BSON value that is 4 length bytes, a subtype byte and the
+ * blob. This is checked against every encrypted entry of corpus-encrypted.json.
+ *
+ * The model is then applied to synthetic corpus documents. Unless FOOTPRINT_OFFLINE is set, the same documents are
+ * bulk loaded with and without encryption and the model is compared with collStats and the insert command sizes.
+ */
+public class FootprintAnalyzer {
+    private static final BsonDocumentCodec CODEC = new BsonDocumentCodec();
+
+    /* Bytes of the BSON value of an encrypted field whose plaintext value takes 'plaintextBytes'. */
+    static int ciphertextValueBytes (int plaintextBytes) {
+        int blob = 1 + 16 + 1 + 16 + 16 * (plaintextBytes / 16 + 1) + 32;
+        return 4 + 1 + blob;
+    }
+
+    /* Bytes of the BSON encoding of 'value', without its type byte and field name. */
+    static int valueBytes (BsonValue value) {
+        /* A document holding only "v": 4 length bytes, a type byte, "v\0", the value, and a terminating 0. */
+        return new RawBsonDocument(new BsonDocument("v", value), CODEC).getByteBuffer().remaining() - 8;
+    }
+
+    private static int documentBytes (BsonDocument doc) {
+        return doc instanceof RawBsonDocument
+                ? ((RawBsonDocument) doc).getByteBuffer().remaining()
+                : new RawBsonDocument(doc, CODEC).getByteBuffer().remaining();
+    }
+
+    private final int docs;
+    private final int batchSize;
+    private final int valueSize;
+    private final boolean offline;
+    private final BsonDocument corpus = Util.bsonDocumentFromPath("./corpus/corpus.json");
+    private final BsonDocument schema = Util.bsonDocumentFromPath("./corpus/corpus-schema.json");
+
+    FootprintAnalyzer (int docs, int batchSize, int valueSize, boolean offline) {
+        this.docs = docs;
+        this.batchSize = batchSize;
+        this.valueSize = valueSize;
+        this.offline = offline;
+    }
+
+    /* Expansion of every encrypted corpus entry, by type and algorithm, and whether the model predicts it exactly. */
+    private void corpusExpansion () {
+        BsonDocument encrypted = Util.bsonDocumentFromPath("./corpus/corpus-encrypted.json");
+        /* "type algo" to {entries, plaintext bytes, ciphertext bytes, mismatches}. */
+        Map<String, long[]> rows = new TreeMap<>();
+        for (Map.Entry<String, BsonValue> entry : corpus.entrySet()) {
+            if (!entry.getValue().isDocument()) {
+                continue;
+            }
+            BsonDocument plaintext = entry.getValue().asDocument();
+            BsonValue ciphertext = encrypted.getDocument(entry.getKey()).get("value");
+            if (!ciphertext.isBinary() || ciphertext.asBinary().getType() != 6) {
+                continue;
+            }
+            int plaintextBytes = valueBytes(plaintext.get("value"));
+            int ciphertextBytes = valueBytes(ciphertext);
+            String key = String.format("%-20s %s", plaintext.getString("type").getValue(), plaintext.getString("algo").getValue());
+            long[] row = rows.get(key);
+            if (row == null) {
+                row = new long[4];
+                rows.put(key, row);
+            }
+            row[0]++;
+            row[1] += plaintextBytes;
+            row[2] += ciphertextBytes;
+            if (ciphertextValueBytes(plaintextBytes) != ciphertextBytes) {
+                row[3]++;
+            }
+        }
+        System.out.println("Corpus expansion per type and algorithm (value bytes, mean over entries):");
+        System.out.println(String.format("  %-25s %7s %10s %10s %7s %s", "type algo", "entries", "plaintext", "ciphertext", "ratio", "model"));
+        for (Map.Entry<String, long[]> row : rows.entrySet()) {
+            long[] r = row.getValue();
+            System.out.println(String.format("  %-25s %7d %10.1f %10.1f %6.1fx %s", row.getKey(), r[0],
+                    (double) r[1] / r[0], (double) r[2] / r[0], (double) r[2] / r[1],
+                    r[3] == 0 ? "exact" : r[3] + " mismatches"));
+        }
+    }
+
+    private static void sizeExpansion () {
+        System.out.println("Expansion by plaintext value size:");
+        System.out.println(String.format("  %10s %10s %10s %7s", "plaintext", "ciphertext", "overhead", "ratio"));
+        for (int size : new int[] {1, 4, 8, 15, 16, 17, 32, 64, 128, 256, 1024, 4096, 16384, 65536}) {
+            int ciphertext = ciphertextValueBytes(size);
+            System.out.println(String.format("  %10d %10d %10d %6.2fx", size, ciphertext, ciphertext - size, (double) ciphertext / size));
+        }
+    }
+
+    /* Modeled sizes of the documents loaded, accumulated one document at a time. */
+    private static class Model {
+        long docs;
+        long plaintextBytes;
+        long encryptedBytes;
+        /* Per deterministic field: index key bytes with and without encryption. */
+        final Map<String, long[]> indexKeyBytes = new TreeMap<>();
+
+        void add (BsonDocument doc, Set<String> encryptedFields, Set<String> detFields) {
+            docs++;
+            int plaintext = documentBytes(doc);
+            int encrypted = plaintext;
+            /* Iterate once rather than looking fields up, which rescans a RawBsonDocument every time. */
+            for (Map.Entry<String, BsonValue> entry : doc.entrySet()) {
+                String field = entry.getKey();
+                if (!encryptedFields.contains(field)) {
+                    continue;
+                }
+                int plaintextValue = valueBytes(entry.getValue().asDocument().get("value"));
+                int ciphertextValue = ciphertextValueBytes(plaintextValue);
+                encrypted += ciphertextValue - plaintextValue;
+                if (detFields.contains(field)) {
+                    long[] keyBytes = indexKeyBytes.get(field);
+                    if (keyBytes == null) {
+                        keyBytes = new long[2];
+                        indexKeyBytes.put(field, keyBytes);
+                    }
+                    keyBytes[0] += plaintextValue;
+                    keyBytes[1] += ciphertextValue;
+                }
+            }
+            plaintextBytes += plaintext;
+            encryptedBytes += encrypted;
+        }
+    }
+
+    /*
+     * Sums the BSON size of every insert command sent to db.'collection', as a measure of the bytes on the wire.
+     * Inserts elsewhere, such as resetting the key vault, are not counted.
+     */
+    private static class InsertBytes implements CommandListener {
+        final AtomicLong bytes = new AtomicLong();
+        final AtomicLong commands = new AtomicLong();
+        private final String collection;
+
+        InsertBytes (String collection) {
+            this.collection = collection;
+        }
+
+        @Override
+        public void commandStarted (CommandStartedEvent event) {
+            if (event.getCommandName().equals("insert") && event.getDatabaseName().equals("db")
+                    && event.getCommand().getString("insert").getValue().equals(collection)) {
+                commands.incrementAndGet();
+                bytes.addAndGet(documentBytes(event.getCommand()));
+            }
+        }
+
+        @Override
+        public void commandSucceeded (CommandSucceededEvent event) {
+        }
+
+        @Override
+        public void commandFailed (CommandFailedEvent event) {
+        }
+    }
+
+    private void run () {
+        corpusExpansion();
+        sizeExpansion();
+
+        Set<String> kms = Collections.singleton("local");
+        SyntheticCorpus generator = new SyntheticCorpus(corpus, schema, kms, docs, valueSize, 0);
+        Set<String> encryptedFields = new HashSet<>();
+        Set<String> detFields = new TreeSet<>();
+        for (Map.Entry<String, BsonValue> entry : schema.getDocument("properties").entrySet()) {
+            BsonDocument valueSchema = entry.getValue().asDocument().getDocument("properties").getDocument("value");
+            if (valueSchema.containsKey("encrypt") && corpus.getDocument(entry.getKey()).getString("kms").getValue().equals("local")) {
+                encryptedFields.add(entry.getKey());
+                if (valueSchema.getDocument("encrypt").getString("algorithm").getValue().endsWith("Deterministic")) {
+                    detFields.add(entry.getKey());
+                }
+            }
+        }
+
+        Model model = new Model();
+        MongoClient client = null, client_encrypted = null;
+        MongoCollection<RawBsonDocument> collEncrypted = null, collPlain = null;
+        InsertBytes encryptedInserts = new InsertBytes("footprint"), plainInserts = new InsertBytes("footprint_plain");
+        if (!offline) {
+            client = MongoClients.create(MongoClientSettings.builder()
+                    .codecRegistry(Fixtures.CODEC_REGISTRY).addCommandListener(plainInserts).build());
+            MongoDatabase db = client.getDatabase("db");
+            db.getCollection("footprint").drop();
+            db.getCollection("footprint_plain").drop();
+            Util.resetKeyVault(client, "admin.datakeys", "./corpus/corpus-key-local.json");
+            Map<String, BsonDocument> schemaMap = new HashMap<>();
+            schemaMap.put("db.footprint", schema);
+            client_encrypted = MongoClients.create(MongoClientSettings.builder()
+                    .codecRegistry(Fixtures.CODEC_REGISTRY)
+                    .addCommandListener(encryptedInserts)
+                    .autoEncryptionSettings(AutoEncryptionSettings.builder()
+                            .keyVaultNamespace("admin.datakeys")
+                            .kmsProviders(Util.localKmsProviders())
+                            .schemaMap(schemaMap)
+                            .build())
+                    .build());
+            collEncrypted = client_encrypted.getDatabase("db").getCollection("footprint", RawBsonDocument.class);
+            collPlain = db.getCollection("footprint_plain", RawBsonDocument.class);
+        }
+
+        List<RawBsonDocument> batch = new ArrayList<>(batchSize);
+        while (generator.hasNext()) {
+            RawBsonDocument doc = generator.next();
+            model.add(doc, encryptedFields, detFields);
+            if (!offline) {
+                batch.add(doc);
+                if (batch.size() == batchSize || !generator.hasNext()) {
+                    collEncrypted.insertMany(batch);
+                    collPlain.insertMany(batch);
+                    batch.clear();
+                }
+            }
+        }
+
+        long indexPlain = 0, indexEncrypted = 0;
+        for (long[] keyBytes : model.indexKeyBytes.values()) {
+            indexPlain += keyBytes[0];
+            indexEncrypted += keyBytes[1];
+        }
+        System.out.println(String.format("Model for %d synthetic documents (%d encrypted fields, %d deterministic, value size %d):",
+                model.docs, encryptedFields.size(), detFields.size(), valueSize));
+        System.out.println(String.format("  documents: %d -> %d bytes (%.2fx), %.0f -> %.0f bytes/doc",
+                model.plaintextBytes, model.encryptedBytes, (double) model.encryptedBytes / model.plaintextBytes,
+                (double) model.plaintextBytes / model.docs, (double) model.encryptedBytes / model.docs));
+        System.out.println(String.format("  index keys on deterministic fields (uncompressed): %d -> %d bytes (%.2fx)",
+                indexPlain, indexEncrypted, (double) indexEncrypted / indexPlain));
+        if (offline) {
+            return;
+        }
+
+        MongoDatabase db = client.getDatabase("db");
+        for (String field : detFields) {
+            db.getCollection("footprint").createIndex(Indexes.ascending(field + ".value"));
+            db.getCollection("footprint_plain").createIndex(Indexes.ascending(field + ".value"));
+        }
+        /* Force a checkpoint so storage and index sizes are current. */
+        client.getDatabase("admin").runCommand(new BsonDocument("fsync", new BsonInt32(1)));
+        BsonDocument statsPlain = db.runCommand(new BsonDocument("collStats", new BsonString("footprint_plain")), BsonDocument.class);
+        BsonDocument statsEncrypted = db.runCommand(new BsonDocument("collStats", new BsonString("footprint")), BsonDocument.class);
+
+        System.out.println("Model vs collStats (plaintext -> encrypted):");
+        System.out.println(String.format("  data size:    model %d -> %d, collStats %d -> %d",
+                model.plaintextBytes, model.encryptedBytes,
+                statsPlain.getNumber("size").longValue(), statsEncrypted.getNumber("size").longValue()));
+        System.out.println(String.format("  avgObjSize:   model %.0f -> %.0f, collStats %d -> %d",
+                (double) model.plaintextBytes / model.docs, (double) model.encryptedBytes / model.docs,
+                statsPlain.getNumber("avgObjSize").longValue(), statsEncrypted.getNumber("avgObjSize").longValue()));
+        System.out.println(String.format("  storageSize (compressed): %d -> %d (%.2fx)",
+                statsPlain.getNumber("storageSize").longValue(), statsEncrypted.getNumber("storageSize").longValue(),
+                statsEncrypted.getNumber("storageSize").doubleValue() / statsPlain.getNumber("storageSize").doubleValue()));
+        System.out.println(String.format("  deterministic index size (prefix compressed): %d -> %d (%.2fx), model key bytes %.2fx",
+                detIndexBytes(statsPlain), detIndexBytes(statsEncrypted),
+                (double) detIndexBytes(statsEncrypted) / detIndexBytes(statsPlain), (double) indexEncrypted / indexPlain));
+        System.out.println(String.format("  insert commands: %d -> %d bytes over %d batches, model documents %d -> %d",
+                plainInserts.bytes.get(), encryptedInserts.bytes.get(), encryptedInserts.commands.get(),
+                model.plaintextBytes, model.encryptedBytes));
+
+        client_encrypted.close();
+        client.close();
+    }
+
+    /* Total size of the indexes other than _id. */
+    private static long detIndexBytes (BsonDocument stats) {
+        long bytes = 0;
+        for (Map.Entry<String, BsonValue> index : stats.getDocument("indexSizes").entrySet()) {
+            if (!index.getKey().equals("_id_")) {
+                bytes += index.getValue().asNumber().longValue();
+            }
+        }
+        return bytes;
+    }
+
+    public static void main(String[] args) {
+        new FootprintAnalyzer(Util.intFromEnv("FOOTPRINT_DOCS", 10000),
+                Util.intFromEnv("FOOTPRINT_BATCH_SIZE", 1000),
+                Util.intFromEnv("FOOTPRINT_VALUE_SIZE", 8),
+                System.getenv("FOOTPRINT_OFFLINE") != null).run();
+    }
+}
@@ -0,0 +1,213 @@
+import com.mongodb.MongoClientSettings;
+import com.mongodb.client.model.vault.EncryptOptions;
+import com.mongodb.client.vault.ClientEncryption;
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+import org.bson.BsonBinary;
+import org.bson.BsonValue;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Breaks the time of encryption operations down by phase. A CommandListener attached to the data and key vault
+ * clients attributes each command to the operation running on the calling thread:
+ * - "keyVault": find on the key vault collection.
+ * - "listCollections": fetching the server-side schema.
+ * - "server": every other command, i.e. the actual read or write.
+ * Whatever is left of an operation is reported as "marking+crypto": mongocryptd marking and libmongocrypt work,
+ * including KMS requests. The driver does not expose the mongocryptd connection, so marking cannot be split out.
+ *
+ * Explicit encrypt/decrypt calls and every command are also emitted as JFR events (see JfrEvents) when the JDK has
+ * JFR. Instrumentation is only enabled when the INSTRUMENT environment variable is set.
+ */
+class Instrumentation {
+    private final boolean enabled;
+    private final String keyVaultDatabase;
+    private final String keyVaultCollection;
+    private final ThreadLocal<Span> current = new ThreadLocal<>();
+    /* Phase of each in-flight command, keyed by connection and request id. */
+    private final Map<String, String> pendingPhases = new ConcurrentHashMap<>();
+    private final Map<String, Totals> totals = new TreeMap<>();
+    /* Null if instrumentation is disabled or the JDK has no JFR. */
+    private final JfrEvents jfr;
+
+    Instrumentation (boolean enabled, String keyVaultNamespace) {
+        this.enabled = enabled;
+        this.jfr = enabled ? JfrEvents.load() : null;
+        String[] parts = keyVaultNamespace.split("\\.", 2);
+        this.keyVaultDatabase = parts[0];
+        this.keyVaultCollection = parts[1];
+    }
+
+    static Instrumentation fromEnv (String keyVaultNamespace) {
+        return new Instrumentation(System.getenv("INSTRUMENT") != null, keyVaultNamespace);
+    }
+
+    /* An operation whose commands are attributed to it until end() is called on the same thread. Spans may nest. */
+    class Span {
+        private final String operation;
+        private final long start = System.nanoTime();
+        private final Map<String, Long> phaseNanos = new HashMap<>();
+        /* The span that was current when this one started, restored by end(). */
+        private Span parent;
+
+        private Span (String operation) {
+            this.operation = operation;
+        }
+
+        private void add (String phase, long nanos) {
+            Long previous = phaseNanos.get(phase);
+            phaseNanos.put(phase, previous == null ? nanos : previous + nanos);
+        }
+
+        void end () {
+            if (!enabled) {
+                return;
+            }
+            long elapsed = System.nanoTime() - start;
+            if (parent == null) {
+                current.remove();
+            } else {
+                current.set(parent);
+            }
+            synchronized (totals) {
+                Totals total = totals.get(operation);
+                if (total == null) {
+                    total = new Totals();
+                    totals.put(operation, total);
+                }
+                total.count++;
+                total.nanos += elapsed;
+                long attributed = 0;
+                for (Map.Entry<String, Long> phase : phaseNanos.entrySet()) {
+                    Long previous = total.phaseNanos.get(phase.getKey());
+                    total.phaseNanos.put(phase.getKey(), previous == null ? phase.getValue() : previous + phase.getValue());
+                    attributed += phase.getValue();
+                }
+                Long previous = total.phaseNanos.get("marking+crypto");
+                total.phaseNanos.put("marking+crypto", (previous == null ? 0 : previous) + Math.max(0, elapsed - attributed));
+            }
+        }
+    }
+
+    private static class Totals {
+        long count;
+        long nanos;
+        final Map<String, Long> phaseNanos = new TreeMap<>();
+    }
+
+    private final CommandListener listener = new CommandListener() {
+        @Override
+        public void commandStarted (CommandStartedEvent event) {
+            String phase = "server";
+            if (event.getCommandName().equals("listCollections")) {
+                phase = "listCollections";
+            } else if (event.getCommandName().equals("find")
+                    && event.getDatabaseName().equals(keyVaultDatabase)
+                    && event.getCommand().getString("find").getValue().equals(keyVaultCollection)) {
+                phase = "keyVault";
+            }
+            pendingPhases.put(event.getConnectionDescription().getConnectionId() + "/" + event.getRequestId(), phase);
+        }
+
+        @Override
+        public void commandSucceeded (CommandSucceededEvent event) {
+            finished(event.getConnectionDescription().getConnectionId() + "/" + event.getRequestId(),
+                    event.getCommandName(), event.getElapsedTime(TimeUnit.NANOSECONDS));
+        }
+
+        @Override
+        public void commandFailed (CommandFailedEvent event) {
+            finished(event.getConnectionDescription().getConnectionId() + "/" + event.getRequestId(),
+                    event.getCommandName(), event.getElapsedTime(TimeUnit.NANOSECONDS));
+        }
+
+        private void finished (String key, String command, long nanos) {
+            String phase = pendingPhases.remove(key);
+            if (phase == null) {
+                return;
+            }
+            Span span = current.get();
+            if (span != null) {
+                span.add(phase, nanos);
+            }
+            if (jfr != null) {
+                jfr.command(phase, command, nanos);
+            }
+        }
+    };
+
+    /* Attach the command listener to the client that 'builder' configures. */
+    MongoClientSettings.Builder apply (MongoClientSettings.Builder builder) {
+        if (enabled) {
+            builder.addCommandListener(listener);
+        }
+        return builder;
+    }
+
+    Span start (String operation) {
+        Span span = new Span(operation);
+        if (enabled) {
+            span.parent = current.get();
+            current.set(span);
+        }
+        return span;
+    }
+
+    BsonBinary encrypt (ClientEncryption clientEncryption, BsonValue value, EncryptOptions opts) {
+        if (!enabled) {
+            return clientEncryption.encrypt(value, opts);
+        }
+        Object event = jfr == null ? null : jfr.beginEncrypt();
+        Span span = start("encrypt");
+        try {
+            return clientEncryption.encrypt(value, opts);
+        } finally {
+            span.end();
+            if (event != null) {
+                jfr.end(event, opts.getAlgorithm(), value.getBsonType().name());
+            }
+        }
+    }
+
+    BsonValue decrypt (ClientEncryption clientEncryption, BsonBinary value) {
+        if (!enabled) {
+            return clientEncryption.decrypt(value);
+        }
+        Object event = jfr == null ? null : jfr.beginDecrypt();
+        Span span = start("decrypt");
+        BsonValue decrypted = null;
+        try {
+            decrypted = clientEncryption.decrypt(value);
+            return decrypted;
+        } finally {
+            span.end();
+            if (event != null) {
+                jfr.end(event, decrypted == null ? null : decrypted.getBsonType().name());
+            }
+        }
+    }
+
+    /* Print the mean time per phase of every operation recorded so far. */
+    void report () {
+        if (!enabled) {
+            return;
+        }
+        synchronized (totals) {
+            for (Map.Entry<String, Totals> entry : totals.entrySet()) {
+                Totals total = entry.getValue();
+                StringBuilder line = new StringBuilder(String.format("%-16s %6d ops, mean %8.3f ms:",
+                        entry.getKey(), total.count, total.nanos / 1e6 / total.count));
+                for (Map.Entry<String, Long> phase : total.phaseNanos.entrySet()) {
+                    line.append(String.format(" %s %.3f ms (%.0f%%)", phase.getKey(), phase.getValue() / 1e6 / total.count,
+                            100.0 * phase.getValue() / Math.max(1, total.nanos)));
+                }
+                System.out.println(line);
+            }
+        }
+    }
+}
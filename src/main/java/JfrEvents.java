@@ -0,0 +1,119 @@
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.*;
+
+/*
+ * The JFR events of Instrumentation (category "FLE"): fle.Command, fle.Encrypt and fle.Decrypt. JFR is only in
+ * JDK 11+ and 8u262+, but the project targets Java 8, so the event types are built at runtime with
+ * jdk.jfr.EventFactory and every jdk.jfr call goes through reflection. load() returns null when JFR is missing.
+ */
+class JfrEvents {
+    private final Class<?> annotationElement;
+    private final Method newEvent;
+    private final Method begin;
+    private final Method end;
+    private final Method shouldCommit;
+    private final Method set;
+    private final Method commit;
+    private final Object command;
+    private final Object encrypt;
+    private final Object decrypt;
+
+    private JfrEvents () throws ReflectiveOperationException {
+        annotationElement = Class.forName("jdk.jfr.AnnotationElement");
+        Class<?> event = Class.forName("jdk.jfr.Event");
+        newEvent = Class.forName("jdk.jfr.EventFactory").getMethod("newEvent");
+        begin = event.getMethod("begin");
+        end = event.getMethod("end");
+        shouldCommit = event.getMethod("shouldCommit");
+        set = event.getMethod("set", int.class, Object.class);
+        commit = event.getMethod("commit");
+        command = factory("fle.Command", "FLE Command",
+                field(String.class, "phase", "Phase"),
+                field(String.class, "command", "Command"),
+                field(long.class, "elapsed", "Elapsed", annotation("Timespan", "NANOSECONDS")));
+        encrypt = factory("fle.Encrypt", "FLE Explicit Encrypt",
+                field(String.class, "algorithm", "Algorithm"),
+                field(String.class, "bsonType", "BSON Type"));
+        decrypt = factory("fle.Decrypt", "FLE Explicit Decrypt",
+                field(String.class, "bsonType", "BSON Type"));
+    }
+
+    /* The events, or null if this JDK has no JFR. */
+    static JfrEvents load () {
+        try {
+            Class.forName("jdk.jfr.Event");
+        } catch (ClassNotFoundException e) {
+            return null;
+        }
+        try {
+            return new JfrEvents();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("could not create the JFR event types", e);
+        }
+    }
+
+    private Object annotation (String type, Object value) throws ReflectiveOperationException {
+        return annotationElement.getConstructor(Class.class, Object.class)
+                .newInstance(Class.forName("jdk.jfr." + type), value);
+    }
+
+    private Object field (Class<?> type, String name, String label, Object... annotations) throws ReflectiveOperationException {
+        List<Object> elements = new ArrayList<>(Arrays.asList(annotations));
+        elements.add(annotation("Label", label));
+        return Class.forName("jdk.jfr.ValueDescriptor").getConstructor(Class.class, String.class, List.class)
+                .newInstance(type, name, elements);
+    }
+
+    private Object factory (String name, String label, Object... fields) throws ReflectiveOperationException {
+        List<Object> annotations = Arrays.asList(annotation("Name", name), annotation("Label", label),
+                annotation("Category", new String[]{"FLE"}));
+        return Class.forName("jdk.jfr.EventFactory").getMethod("create", List.class, List.class)
+                .invoke(null, annotations, Arrays.asList(fields));
+    }
+
+    private Object invoke (Method method, Object target, Object... args) {
+        try {
+            return method.invoke(target, args);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        } catch (InvocationTargetException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private Object begin (Object factory) {
+        Object event = invoke(newEvent, factory);
+        invoke(begin, event);
+        return event;
+    }
+
+    Object beginEncrypt () {
+        return begin(encrypt);
+    }
+
+    Object beginDecrypt () {
+        return begin(decrypt);
+    }
+
+    /* End an event from beginEncrypt or beginDecrypt and, if a recording wants it, commit it with its field values. */
+    void end (Object event, Object... values) {
+        invoke(end, event);
+        if ((Boolean) invoke(shouldCommit, event)) {
+            for (int i = 0; i < values.length; i++) {
+                invoke(set, event, i, values[i]);
+            }
+            invoke(commit, event);
+        }
+    }
+
+    void command (String phase, String name, long elapsedNanos) {
+        Object event = invoke(newEvent, command);
+        if ((Boolean) invoke(shouldCommit, event)) {
+            invoke(set, event, 0, phase);
+            invoke(set, event, 1, name);
+            invoke(set, event, 2, elapsedNanos);
+            invoke(commit, event);
+        }
+    }
+}
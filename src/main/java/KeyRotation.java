@@ -0,0 +1,265 @@
+import com.mongodb.ClientEncryptionSettings;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.WriteModel;
+import com.mongodb.client.model.vault.DataKeyOptions;
+import com.mongodb.client.model.vault.EncryptOptions;
+import com.mongodb.client.vault.ClientEncryption;
+import com.mongodb.client.vault.ClientEncryptions;
+import org.bson.*;
+import org.bson.codecs.UuidCodec;
+import org.bson.codecs.configuration.CodecRegistry;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.bson.codecs.configuration.CodecRegistries.fromCodecs;
+import static org.bson.codecs.configuration.CodecRegistries.fromRegistries;
+
+/*
+ * Re-encrypts every encrypted field of a collection under a newly created local data key.
+ * Documents are streamed in _id order with a batched cursor; each batch is decrypted, re-encrypted and written back
+ * with an unordered bulk write on a pool of workers, with at most ROTATE_IN_FLIGHT batches held in memory.
+ * The highest _id below which every batch is written is saved to a checkpoint file together with the new key id,
+ * so an interrupted run resumes where it stopped and keeps using the same key.
+ *
+ * Note that a JSON schema naming the old key id keeps encrypting new writes under the old key.
+ */
+public class KeyRotation {
+    /* Binary subtype of encrypted values. */
+    private static final byte ENCRYPTED_SUBTYPE = 6;
+    /* First byte of an encrypted binary for each algorithm. */
+    private static final byte DETERMINISTIC_BLOB = 1;
+    private static final byte RANDOM_BLOB = 2;
+
+    private final String namespace;
+    private final int batchSize;
+    private final int workers;
+    private final int inFlight;
+    private final Path checkpointPath;
+
+    private ClientEncryption clientEncryption;
+    private BsonBinary newKeyId;
+    private final AtomicLong docsRotated = new AtomicLong();
+    private final AtomicLong fieldsRotated = new AtomicLong();
+
+    KeyRotation (String namespace, int batchSize, int workers, int inFlight, String checkpointPath) {
+        this.namespace = namespace;
+        this.batchSize = batchSize;
+        this.workers = workers;
+        this.inFlight = inFlight;
+        this.checkpointPath = Paths.get(checkpointPath);
+    }
+
+    /* A batch read from the cursor, and the _id of its last document. */
+    private static class Batch {
+        final List<RawBsonDocument> docs;
+        final BsonValue lastId;
+
+        Batch (List<RawBsonDocument> docs) {
+            this.docs = docs;
+            this.lastId = docs.get(docs.size() - 1).get("_id");
+        }
+    }
+
+    /* Return 'value' with every ciphertext not already under the new key re-encrypted, or null if none were. */
+    private BsonValue rewrap (BsonValue value) {
+        if (value.isBinary() && value.asBinary().getType() == ENCRYPTED_SUBTYPE) {
+            byte[] data = value.asBinary().getData();
+            /* The blob is one algorithm byte, then the 16-byte key id. */
+            if (Arrays.equals(Arrays.copyOfRange(data, 1, 17), newKeyId.getData())) {
+                return null;
+            }
+            String algorithm;
+            if (data[0] == DETERMINISTIC_BLOB) {
+                algorithm = "AEAD_AES_256_CBC_HMAC_SHA_512-Deterministic";
+            } else if (data[0] == RANDOM_BLOB) {
+                algorithm = "AEAD_AES_256_CBC_HMAC_SHA_512-Random";
+            } else {
+                throw new IllegalStateException("unexpected encrypted blob subtype " + data[0]);
+            }
+            BsonValue decrypted = clientEncryption.decrypt(value.asBinary());
+            fieldsRotated.incrementAndGet();
+            return clientEncryption.encrypt(decrypted, new EncryptOptions(algorithm).keyId(newKeyId));
+        }
+        if (value.isDocument()) {
+            BsonDocument rewrapped = null;
+            for (Map.Entry<String, BsonValue> entry : value.asDocument().entrySet()) {
+                BsonValue element = rewrap(entry.getValue());
+                if (element != null && rewrapped == null) {
+                    rewrapped = new BsonDocument();
+                    rewrapped.putAll(value.asDocument());
+                }
+                if (element != null) {
+                    rewrapped.put(entry.getKey(), element);
+                }
+            }
+            return rewrapped;
+        }
+        if (value.isArray()) {
+            BsonArray rewrapped = null;
+            List<BsonValue> values = value.asArray().getValues();
+            for (int i = 0; i < values.size(); i++) {
+                BsonValue element = rewrap(values.get(i));
+                if (element != null && rewrapped == null) {
+                    rewrapped = new BsonArray(new ArrayList<>(values));
+                }
+                if (element != null) {
+                    rewrapped.set(i, element);
+                }
+            }
+            return rewrapped;
+        }
+        return null;
+    }
+
+    private void rotateBatch (MongoCollection<BsonDocument> coll, Batch batch) {
+        List<WriteModel<BsonDocument>> writes = new ArrayList<>();
+        for (RawBsonDocument doc : batch.docs) {
+            BsonValue rewrapped = rewrap(doc);
+            if (rewrapped != null) {
+                writes.add(new ReplaceOneModel<>(Filters.eq("_id", doc.get("_id")), rewrapped.asDocument()));
+            }
+        }
+        if (!writes.isEmpty()) {
+            coll.bulkWrite(writes, new BulkWriteOptions().ordered(false));
+        }
+        docsRotated.addAndGet(writes.size());
+    }
+
+    private BsonDocument readCheckpoint () throws IOException {
+        if (!Files.exists(checkpointPath)) {
+            return null;
+        }
+        return BsonDocument.parse(new String(Files.readAllBytes(checkpointPath), StandardCharsets.UTF_8));
+    }
+
+    private void writeCheckpoint (BsonValue lastId) throws IOException {
+        BsonDocument checkpoint = new BsonDocument("keyId", newKeyId);
+        if (lastId != null) {
+            checkpoint.append("lastId", lastId);
+        }
+        Path tmp = Paths.get(checkpointPath + ".tmp");
+        Files.write(tmp, checkpoint.toJson().getBytes(StandardCharsets.UTF_8));
+        Files.move(tmp, checkpointPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void run () throws IOException, InterruptedException {
+        CodecRegistry codecRegistry = fromRegistries(
+                fromCodecs(new UuidCodec(UuidRepresentation.STANDARD)), MongoClientSettings.getDefaultCodecRegistry());
+        MongoClient client = MongoClients.create(MongoClientSettings.builder().codecRegistry(codecRegistry).build());
+
+        /* Make sure the local corpus key is in the key vault, without touching any other key. */
+        BsonDocument localKey = Util.bsonDocumentFromPath("./corpus/corpus-key-local.json");
+        client.getDatabase("admin").getCollection("datakeys", BsonDocument.class)
+                .replaceOne(Filters.eq("_id", localKey.get("_id")), localKey, new ReplaceOptions().upsert(true));
+
+        ClientEncryptionSettings clientEncryptionSettings = ClientEncryptionSettings.builder()
+                .keyVaultMongoClientSettings(MongoClientSettings.builder().build())
+                .kmsProviders(Util.localKmsProviders())
+                .keyVaultNamespace("admin.datakeys")
+                .build();
+        clientEncryption = ClientEncryptions.create(clientEncryptionSettings);
+
+        BsonDocument checkpoint = readCheckpoint();
+        BsonValue lastId = null;
+        if (checkpoint != null) {
+            newKeyId = checkpoint.getBinary("keyId");
+            lastId = checkpoint.get("lastId");
+            System.out.println("resuming with key " + Base64.getEncoder().encodeToString(newKeyId.getData())
+                    + (lastId == null ? "" : " after _id " + lastId));
+        } else {
+            newKeyId = clientEncryption.createDataKey("local", new DataKeyOptions());
+            System.out.println("created key " + Base64.getEncoder().encodeToString(newKeyId.getData()));
+            writeCheckpoint(null);
+        }
+
+        String[] parts = namespace.split("\\.", 2);
+        final MongoCollection<BsonDocument> coll = client.getDatabase(parts[0]).getCollection(parts[1], BsonDocument.class);
+        MongoCursor<RawBsonDocument> cursor = coll.withDocumentClass(RawBsonDocument.class)
+                .find(lastId == null ? new BsonDocument() : Filters.gt("_id", lastId))
+                .sort(Sorts.ascending("_id"))
+                .batchSize(batchSize)
+                .iterator();
+
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        /* Submitted batches in _id order. The checkpoint only advances past batches at the head that are done. */
+        Deque<Map.Entry<Batch, Future<?>>> pending = new ArrayDeque<>();
+        long docsRead = 0;
+        long start = System.nanoTime(), lastReport = start;
+        try {
+            while (cursor.hasNext() || !pending.isEmpty()) {
+                if (cursor.hasNext() && pending.size() < inFlight) {
+                    List<RawBsonDocument> docs = new ArrayList<>(batchSize);
+                    while (docs.size() < batchSize && cursor.hasNext()) {
+                        docs.add(cursor.next());
+                    }
+                    docsRead += docs.size();
+                    final Batch batch = new Batch(docs);
+                    pending.add(new AbstractMap.SimpleImmutableEntry<Batch, Future<?>>(batch, pool.submit(new Runnable() {
+                        @Override
+                        public void run () {
+                            rotateBatch(coll, batch);
+                        }
+                    })));
+                } else {
+                    /* Either the in-flight limit is reached or the cursor is exhausted: wait for the oldest batch. */
+                    Util.await(pending.peekFirst().getValue());
+                }
+
+                BsonValue completed = null;
+                while (!pending.isEmpty() && pending.peekFirst().getValue().isDone()) {
+                    Map.Entry<Batch, Future<?>> head = pending.pollFirst();
+                    Util.await(head.getValue());
+                    completed = head.getKey().lastId;
+                }
+                if (completed != null) {
+                    writeCheckpoint(completed);
+                }
+
+                long now = System.nanoTime();
+                if (now - lastReport > TimeUnit.SECONDS.toNanos(5)) {
+                    lastReport = now;
+                    System.out.println(String.format("read %d docs, rewrote %d docs (%d fields), %.0f docs/s",
+                            docsRead, docsRotated.get(), fieldsRotated.get(), docsRead / ((now - start) / 1e9)));
+                }
+            }
+        } finally {
+            cursor.close();
+            pool.shutdownNow();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.println(String.format("done: read %d docs, rewrote %d docs (%d fields) in %.1f s, %.0f docs/s",
+                docsRead, docsRotated.get(), fieldsRotated.get(), seconds, docsRead / seconds));
+        Files.delete(checkpointPath);
+
+        clientEncryption.close();
+        client.close();
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int workers = Util.intFromEnv("ROTATE_WORKERS", Runtime.getRuntime().availableProcessors());
+        String namespace = System.getenv("ROTATE_NAMESPACE");
+        String checkpoint = System.getenv("ROTATE_CHECKPOINT");
+        new KeyRotation(namespace == null ? "db.coll" : namespace,
+                Util.intFromEnv("ROTATE_BATCH_SIZE", 500),
+                workers,
+                Util.intFromEnv("ROTATE_IN_FLIGHT", 2 * workers),
+                checkpoint == null ? "./rotate-checkpoint.json" : checkpoint).run();
+    }
+}
@@ -0,0 +1,215 @@
+import com.mongodb.AutoEncryptionSettings;
+import com.mongodb.ClientEncryptionSettings;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.vault.ClientEncryption;
+import com.mongodb.client.vault.ClientEncryptions;
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+import org.HdrHistogram.Histogram;
+import org.bson.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * The cost of fetching data keys from the key vault during auto encryption, with many local data keys.
+ * KEYVAULT_KEYS keys are created with createDataKey and split into groups of D, one collection per group, whose
+ * schema encrypts D fields each with a different key. A batch is an insertMany into one collection, so it needs
+ * D distinct keys. A pass inserts one batch into every collection, touching every key once:
+ *   cold: the first pass of a new client, where every batch fetches its D keys with a key vault find.
+ *   warm: the same client's second pass, where the keys should all come from libmongocrypt's key cache.
+ * Each run uses one of two key vault clients:
+ *   shared:    no keyVaultMongoClientSettings, so key vault finds use the encrypted client's connection pool.
+ *   dedicated: keyVaultMongoClientSettings set, so they use a pool of their own.
+ * Key vault finds are observed with a CommandListener on whichever client runs them.
+ */
+public class KeyVaultBenchmark {
+    private static final String DB = "keyvault_bench";
+    private static final String KEY_VAULT_DB = "admin";
+    private static final String KEY_VAULT_COLL = "datakeys";
+
+    private final int keyCount;
+    private final int[] distinctKeys;
+    private final int batchDocs;
+
+    KeyVaultBenchmark (int keyCount, int[] distinctKeys, int batchDocs) {
+        this.keyCount = keyCount;
+        this.distinctKeys = distinctKeys;
+        this.batchDocs = batchDocs;
+    }
+
+    /*
+     * Counts key vault finds, the getMores that follow them when there are more keys than fit in the first batch,
+     * the keys they return, and the latency of each.
+     */
+    private static class KeyVaultFinds implements CommandListener {
+        private final Set<Integer> pending = Collections.synchronizedSet(new HashSet<Integer>());
+        private final Histogram latencyMicros = new Histogram(60L * 1000 * 1000, 3);
+        private long finds;
+        private long getMores;
+        private long keys;
+
+        @Override
+        public void commandStarted (CommandStartedEvent event) {
+            if (!event.getDatabaseName().equals(KEY_VAULT_DB)) {
+                return;
+            }
+            BsonDocument command = event.getCommand();
+            if ((event.getCommandName().equals("find") && command.getString("find").getValue().equals(KEY_VAULT_COLL))
+                    || (event.getCommandName().equals("getMore") && command.getString("collection").getValue().equals(KEY_VAULT_COLL))) {
+                pending.add(event.getRequestId());
+            }
+        }
+
+        @Override
+        public void commandSucceeded (CommandSucceededEvent event) {
+            if (!pending.remove(event.getRequestId())) {
+                return;
+            }
+            BsonDocument cursor = event.getResponse().getDocument("cursor");
+            synchronized (this) {
+                if (event.getCommandName().equals("find")) {
+                    finds++;
+                    keys += cursor.getArray("firstBatch").size();
+                } else {
+                    getMores++;
+                    keys += cursor.getArray("nextBatch").size();
+                }
+                latencyMicros.recordValue(event.getElapsedTime(TimeUnit.MICROSECONDS));
+            }
+        }
+
+        @Override
+        public void commandFailed (CommandFailedEvent event) {
+            pending.remove(event.getRequestId());
+        }
+
+        synchronized void reset () {
+            finds = 0;
+            getMores = 0;
+            keys = 0;
+            latencyMicros.reset();
+        }
+    }
+
+    /* The schema of one collection: fields f_0 .. f_(D-1), each randomly encrypted with its own key. */
+    private static BsonDocument schema (List<BsonBinary> keyIds) {
+        BsonDocument properties = new BsonDocument();
+        for (int i = 0; i < keyIds.size(); i++) {
+            properties.append("f_" + i, new BsonDocument("encrypt", new BsonDocument()
+                    .append("keyId", new BsonArray(Collections.<BsonValue>singletonList(keyIds.get(i))))
+                    .append("bsonType", new BsonString("string"))
+                    .append("algorithm", new BsonString("AEAD_AES_256_CBC_HMAC_SHA_512-Random"))));
+        }
+        return new BsonDocument("bsonType", new BsonString("object")).append("properties", properties);
+    }
+
+    private List<BsonBinary> createKeys (MongoClient client) {
+        client.getDatabase(KEY_VAULT_DB).getCollection(KEY_VAULT_COLL).drop();
+        ClientEncryption clientEncryption = ClientEncryptions.create(ClientEncryptionSettings.builder()
+                .keyVaultMongoClientSettings(MongoClientSettings.builder().codecRegistry(Fixtures.CODEC_REGISTRY).build())
+                .kmsProviders(Util.localKmsProviders())
+                .keyVaultNamespace(KEY_VAULT_DB + "." + KEY_VAULT_COLL)
+                .build());
+        List<BsonBinary> keyIds = new ArrayList<>(keyCount);
+        long start = System.nanoTime();
+        for (int i = 0; i < keyCount; i++) {
+            keyIds.add(clientEncryption.createDataKey("local"));
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        clientEncryption.close();
+        System.out.println(String.format("created %d local data keys in %.2f s (%.0f keys/s)", keyCount, seconds,
+                keyCount / seconds));
+        return keyIds;
+    }
+
+    /* Insert one batch into every collection, then print what it cost. */
+    private void pass (String label, List<MongoCollection<BsonDocument>> colls, int distinct, KeyVaultFinds kvFinds) {
+        BsonDocument doc = new BsonDocument();
+        for (int i = 0; i < distinct; i++) {
+            doc.append("f_" + i, new BsonString("value"));
+        }
+        kvFinds.reset();
+        long start = System.nanoTime();
+        for (MongoCollection<BsonDocument> coll : colls) {
+            List<BsonDocument> batch = new ArrayList<>(batchDocs);
+            for (int i = 0; i < batchDocs; i++) {
+                batch.add(doc.clone());
+            }
+            coll.insertMany(batch);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        synchronized (kvFinds) {
+            System.out.println(String.format(
+                    "  %-4s %6.0f batches/s, %8.0f docs/s | key vault: %5d finds (%7.0f/s), %4d getMores, %6d keys, latency mean %7.1f us, p99 %6d us",
+                    label, colls.size() / seconds, colls.size() * batchDocs / seconds, kvFinds.finds,
+                    kvFinds.finds / seconds, kvFinds.getMores, kvFinds.keys, kvFinds.latencyMicros.getMean(),
+                    kvFinds.latencyMicros.getValueAtPercentile(99)));
+        }
+    }
+
+    private void measure (MongoClient client, List<BsonBinary> keyIds, int distinct, boolean dedicated) {
+        MongoDatabase db = client.getDatabase(DB);
+        db.drop();
+        Map<String, BsonDocument> schemaMap = new HashMap<>();
+        List<String> names = new ArrayList<>();
+        for (int group = 0; (group + 1) * distinct <= keyIds.size(); group++) {
+            String name = "coll_" + group;
+            names.add(name);
+            schemaMap.put(DB + "." + name, schema(keyIds.subList(group * distinct, (group + 1) * distinct)));
+        }
+
+        KeyVaultFinds kvFinds = new KeyVaultFinds();
+        AutoEncryptionSettings.Builder autoEncryptionSettingsBuilder = AutoEncryptionSettings.builder()
+                .keyVaultNamespace(KEY_VAULT_DB + "." + KEY_VAULT_COLL)
+                .kmsProviders(Util.localKmsProviders())
+                .schemaMap(schemaMap);
+        MongoClientSettings.Builder clientSettingsBuilder = MongoClientSettings.builder().codecRegistry(Fixtures.CODEC_REGISTRY);
+        if (dedicated) {
+            autoEncryptionSettingsBuilder.keyVaultMongoClientSettings(MongoClientSettings.builder()
+                    .codecRegistry(Fixtures.CODEC_REGISTRY)
+                    .addCommandListener(kvFinds)
+                    .build());
+        } else {
+            clientSettingsBuilder.addCommandListener(kvFinds);
+        }
+        MongoClient client_encrypted = MongoClients.create(clientSettingsBuilder
+                .autoEncryptionSettings(autoEncryptionSettingsBuilder.build())
+                .build());
+        List<MongoCollection<BsonDocument>> colls = new ArrayList<>();
+        for (String name : names) {
+            colls.add(client_encrypted.getDatabase(DB).getCollection(name, BsonDocument.class));
+        }
+
+        System.out.println(String.format("%s key vault client, %d distinct keys per batch, %d collections:",
+                dedicated ? "dedicated" : "shared", distinct, names.size()));
+        pass("cold", colls, distinct, kvFinds);
+        pass("warm", colls, distinct, kvFinds);
+        client_encrypted.close();
+    }
+
+    private void run () {
+        MongoClient client = MongoClients.create(MongoClientSettings.builder().codecRegistry(Fixtures.CODEC_REGISTRY).build());
+        List<BsonBinary> keyIds = createKeys(client);
+        System.out.println(String.format("%d docs per batch", batchDocs));
+        for (int distinct : distinctKeys) {
+            distinct = Math.min(distinct, keyIds.size());
+            measure(client, keyIds, distinct, false);
+            measure(client, keyIds, distinct, true);
+        }
+        client.getDatabase(DB).drop();
+        client.close();
+    }
+
+    public static void main(String[] args) {
+        new KeyVaultBenchmark(Util.intFromEnv("KEYVAULT_KEYS", 2000),
+                Util.intsFromEnv("KEYVAULT_DISTINCT", "1,10,100,1000"),
+                Util.intFromEnv("KEYVAULT_BATCH_DOCS", 10)).run();
+    }
+}
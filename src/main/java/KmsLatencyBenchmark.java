@@ -0,0 +1,179 @@
+import com.mongodb.AutoEncryptionSettings;
+import com.mongodb.ClientEncryptionSettings;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.vault.DataKeyOptions;
+import com.mongodb.client.model.vault.EncryptOptions;
+import com.mongodb.client.vault.ClientEncryption;
+import com.mongodb.client.vault.ClientEncryptions;
+import org.bson.*;
+import org.bson.codecs.UuidCodec;
+import org.bson.codecs.configuration.CodecRegistry;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.*;
+
+import static org.bson.codecs.configuration.CodecRegistries.fromCodecs;
+import static org.bson.codecs.configuration.CodecRegistries.fromRegistries;
+
+/*
+ * Measures how explicit and auto encryption throughput change with KMS round-trip time, against an in-process
+ * KmsStandIn (see its setup notes). For each latency, new ClientEncryption and auto-encrypting clients start with a
+ * cold key cache. A cold pass uses every data key once and pays its KMS Decrypt; the warm loop after it should only
+ * hit libmongocrypt's key cache, so comparing the two shows how much caching hides the KMS latency.
+ */
+public class KmsLatencyBenchmark {
+    private static final String ENDPOINT = "localhost";
+
+    private final int ops;
+    private final int keys;
+    private final long[] latencies;
+
+    KmsLatencyBenchmark (int ops, int keys, long[] latencies) {
+        this.ops = ops;
+        this.keys = keys;
+        this.latencies = latencies;
+    }
+
+    private static Map<String, Map<String, Object>> awsKmsProviders () {
+        Map<String, Object> awsCreds = new HashMap<>();
+        awsCreds.put("accessKeyId", "standin");
+        awsCreds.put("secretAccessKey", "standin");
+        Map<String, Map<String, Object>> kmsProviders = new HashMap<>();
+        kmsProviders.put("aws", awsCreds);
+        return kmsProviders;
+    }
+
+    private static ClientEncryption newClientEncryption () {
+        return ClientEncryptions.create(ClientEncryptionSettings.builder()
+                .keyVaultMongoClientSettings(MongoClientSettings.builder().build())
+                .kmsProviders(awsKmsProviders())
+                .keyVaultNamespace("admin.datakeys")
+                .build());
+    }
+
+    /*
+     * Explicitly encrypt once with every key in 'keyIds' (the cold pass), then 'ops' values round-robin over them
+     * (the warm loop). Returns {cold pass micros, warm ops/s, cold KMS decrypts, warm KMS decrypts}.
+     */
+    private double[] explicit (KmsStandIn kms, List<BsonBinary> keyIds) {
+        ClientEncryption clientEncryption = newClientEncryption();
+        long decrypts = kms.decryptRequests();
+        long start = System.nanoTime();
+        for (int i = 0; i < keyIds.size(); i++) {
+            clientEncryption.encrypt(new BsonString("value-" + i),
+                    new EncryptOptions("AEAD_AES_256_CBC_HMAC_SHA_512-Random").keyId(keyIds.get(i)));
+        }
+        double cold = (System.nanoTime() - start) / 1e3;
+        long coldDecrypts = kms.decryptRequests() - decrypts;
+        decrypts = kms.decryptRequests();
+        start = System.nanoTime();
+        for (int i = 0; i < ops; i++) {
+            clientEncryption.encrypt(new BsonString("value-" + i),
+                    new EncryptOptions("AEAD_AES_256_CBC_HMAC_SHA_512-Random").keyId(keyIds.get(i % keyIds.size())));
+        }
+        double warm = ops / ((System.nanoTime() - start) / 1e9);
+        long warmDecrypts = kms.decryptRequests() - decrypts;
+        clientEncryption.close();
+        return new double[] {cold, warm, coldDecrypts, warmDecrypts};
+    }
+
+    /*
+     * Insert documents with one field per key in 'keyIds' through auto encryption: one insert (the cold pass, which
+     * needs every key), then 'ops' more (the warm loop). Returns the same as explicit().
+     */
+    private double[] auto (KmsStandIn kms, CodecRegistry codecRegistry, List<BsonBinary> keyIds) {
+        BsonDocument properties = new BsonDocument();
+        for (int i = 0; i < keyIds.size(); i++) {
+            properties.append("encrypted_" + i, new BsonDocument("encrypt", new BsonDocument()
+                    .append("keyId", new BsonArray(Collections.<BsonValue>singletonList(keyIds.get(i))))
+                    .append("bsonType", new BsonString("string"))
+                    .append("algorithm", new BsonString("AEAD_AES_256_CBC_HMAC_SHA_512-Random"))));
+        }
+        Map<String, BsonDocument> schemaMap = new HashMap<>();
+        schemaMap.put("db.kms", new BsonDocument("bsonType", new BsonString("object")).append("properties", properties));
+        MongoClient client_encrypted = MongoClients.create(MongoClientSettings.builder()
+                .codecRegistry(codecRegistry)
+                .autoEncryptionSettings(AutoEncryptionSettings.builder()
+                        .keyVaultNamespace("admin.datakeys")
+                        .kmsProviders(awsKmsProviders())
+                        .schemaMap(schemaMap)
+                        .build())
+                .build());
+        MongoCollection<BsonDocument> coll = client_encrypted.getDatabase("db").getCollection("kms", BsonDocument.class);
+
+        long decrypts = kms.decryptRequests();
+        long start = System.nanoTime();
+        coll.insertOne(document(keyIds.size(), 0));
+        double cold = (System.nanoTime() - start) / 1e3;
+        long coldDecrypts = kms.decryptRequests() - decrypts;
+        decrypts = kms.decryptRequests();
+        start = System.nanoTime();
+        for (int i = 1; i <= ops; i++) {
+            coll.insertOne(document(keyIds.size(), i));
+        }
+        double warm = ops / ((System.nanoTime() - start) / 1e9);
+        long warmDecrypts = kms.decryptRequests() - decrypts;
+        client_encrypted.close();
+        return new double[] {cold, warm, coldDecrypts, warmDecrypts};
+    }
+
+    private static BsonDocument document (int keys, int i) {
+        BsonDocument doc = new BsonDocument();
+        for (int k = 0; k < keys; k++) {
+            doc.append("encrypted_" + k, new BsonString("value-" + i));
+        }
+        return doc;
+    }
+
+    private void run () throws IOException, GeneralSecurityException {
+        KmsStandIn kms = KmsStandIn.fromEnv();
+        kms.start();
+
+        CodecRegistry codecRegistry = fromRegistries(
+                fromCodecs(new UuidCodec(UuidRepresentation.STANDARD)), MongoClientSettings.getDefaultCodecRegistry());
+        MongoClient client = MongoClients.create(MongoClientSettings.builder().codecRegistry(codecRegistry).build());
+        client.getDatabase("admin").getCollection("datakeys").drop();
+
+        /* Create the AWS data keys through the stand-in. */
+        ClientEncryption clientEncryption = newClientEncryption();
+        List<BsonBinary> keyIds = new ArrayList<>();
+        for (int i = 0; i < keys; i++) {
+            keyIds.add(clientEncryption.createDataKey("aws", new DataKeyOptions().masterKey(new BsonDocument()
+                    .append("key", new BsonString("arn:aws:kms:us-east-1:000000000000:key/standin-" + i))
+                    .append("region", new BsonString("us-east-1"))
+                    .append("endpoint", new BsonString(ENDPOINT)))));
+        }
+        clientEncryption.close();
+
+        System.out.println(String.format("%d ops per run, %d data keys, KMS jitter %d ms", ops, keys, kms.jitterMillis()));
+        for (long latency : latencies) {
+            kms.setLatency(latency, kms.jitterMillis());
+            client.getDatabase("db").getCollection("kms").drop();
+
+            double[] explicit = explicit(kms, keyIds);
+            double[] auto = auto(kms, codecRegistry, keyIds);
+
+            System.out.println(String.format(
+                    "KMS latency %4d ms | explicit: cold pass %9.0f us (%.0f KMS decrypts), then %8.0f ops/s (%.0f KMS decrypts)"
+                            + " | auto: cold pass %9.0f us (%.0f KMS decrypts), then %8.0f ops/s (%.0f KMS decrypts)",
+                    latency, explicit[0], explicit[2], explicit[1], explicit[3], auto[0], auto[2], auto[1], auto[3]));
+        }
+
+        client.close();
+        kms.stop();
+    }
+
+    public static void main(String[] args) throws IOException, GeneralSecurityException {
+        String sweep = System.getenv("KMS_BENCH_LATENCIES_MS");
+        String[] parts = (sweep == null ? "0,1,5,20,50,100" : sweep).split(",");
+        long[] latencies = new long[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            latencies[i] = Long.parseLong(parts[i].trim());
+        }
+        new KmsLatencyBenchmark(Util.intFromEnv("KMS_BENCH_OPS", 1000), Util.intFromEnv("KMS_BENCH_KEYS", 10), latencies).run();
+    }
+}
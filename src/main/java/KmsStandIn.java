@@ -0,0 +1,216 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * An in-process stand-in for the AWS KMS Encrypt and Decrypt endpoints, for running the AWS paths offline.
+ * Point DataKeyOptions.masterKey "endpoint" at the host it listens on. Request signatures are not checked.
+ *
+ * The 3.11 driver always connects to KMS with TLS on port 443 using the default SSLContext, so the stand-in serves
+ * HTTPS on port 443 by default (which may need privileges) with a certificate from KMS_STANDIN_KEYSTORE. The JVM
+ * running the driver must trust it, e.g. by passing the same keystore as -Djavax.net.ssl.trustStore. Create one with:
+ *   keytool -genkeypair -alias kms -keyalg RSA -keystore kms.jks -storepass changeit -dname CN=localhost
+ *
+ * Each response is delayed by the configured latency plus a uniformly random jitter, and fails with an injected
+ * KMSInternalException at the configured error rate.
+ */
+class KmsStandIn {
+    private final HttpsServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final SecretKeySpec masterKey;
+    private final SecureRandom secureRandom = new SecureRandom();
+
+    private volatile long latencyMillis;
+    private volatile long jitterMillis;
+    private volatile double errorRate;
+    private final AtomicLong encryptRequests = new AtomicLong();
+    private final AtomicLong decryptRequests = new AtomicLong();
+
+    KmsStandIn (int port, String keystorePath, char[] keystorePassword) throws IOException, GeneralSecurityException {
+        KeyStore keyStore = KeyStore.getInstance("JKS");
+        try (InputStream in = new FileInputStream(keystorePath)) {
+            keyStore.load(in, keystorePassword);
+        }
+        KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagerFactory.init(keyStore, keystorePassword);
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(keyManagerFactory.getKeyManagers(), null, null);
+
+        /* Ciphertext only has to round trip through this stand-in, so a fixed master key is enough. */
+        masterKey = new SecretKeySpec(MessageDigest.getInstance("SHA-256")
+                .digest("kms-stand-in".getBytes(StandardCharsets.UTF_8)), "AES");
+
+        server = HttpsServer.create(new InetSocketAddress(port), 0);
+        server.setHttpsConfigurator(new HttpsConfigurator(sslContext));
+        server.setExecutor(executor);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle (HttpExchange exchange) throws IOException {
+                try {
+                    respond(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+    }
+
+    static KmsStandIn fromEnv () throws IOException, GeneralSecurityException {
+        String keystore = System.getenv("KMS_STANDIN_KEYSTORE");
+        if (keystore == null) {
+            throw new IllegalArgumentException("no KMS stand-in keystore set");
+        }
+        String password = System.getenv("KMS_STANDIN_KEYSTORE_PASSWORD");
+        KmsStandIn kms = new KmsStandIn(Util.intFromEnv("KMS_STANDIN_PORT", 443), keystore,
+                (password == null ? "changeit" : password).toCharArray());
+        kms.setLatency(Util.intFromEnv("KMS_STANDIN_LATENCY_MS", 0), Util.intFromEnv("KMS_STANDIN_JITTER_MS", 0));
+        kms.setErrorRate(Util.intFromEnv("KMS_STANDIN_ERROR_PERCENT", 0) / 100.0);
+        return kms;
+    }
+
+    void start () {
+        server.start();
+    }
+
+    void stop () {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    void setLatency (long latencyMillis, long jitterMillis) {
+        this.latencyMillis = latencyMillis;
+        this.jitterMillis = jitterMillis;
+    }
+
+    long jitterMillis () {
+        return jitterMillis;
+    }
+
+    void setErrorRate (double errorRate) {
+        this.errorRate = errorRate;
+    }
+
+    long encryptRequests () {
+        return encryptRequests.get();
+    }
+
+    long decryptRequests () {
+        return decryptRequests.get();
+    }
+
+    private void respond (HttpExchange exchange) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] chunk = new byte[4096];
+        try (InputStream in = exchange.getRequestBody()) {
+            int n;
+            while ((n = in.read(chunk)) != -1) {
+                body.write(chunk, 0, n);
+            }
+        }
+
+        long delay = latencyMillis + (jitterMillis > 0 ? ThreadLocalRandom.current().nextLong(jitterMillis + 1) : 0);
+        if (delay > 0) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        String target = exchange.getRequestHeaders().getFirst("X-Amz-Target");
+        BsonDocument response;
+        int status = 200;
+        try {
+            BsonDocument request = BsonDocument.parse(new String(body.toByteArray(), StandardCharsets.UTF_8));
+            if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+                status = 500;
+                response = error("KMSInternalException", "injected failure");
+            } else if ("TrentService.Encrypt".equals(target)) {
+                encryptRequests.incrementAndGet();
+                String keyId = request.getString("KeyId").getValue();
+                byte[] plaintext = Base64.getDecoder().decode(request.getString("Plaintext").getValue());
+                response = new BsonDocument("CiphertextBlob", new BsonString(Base64.getEncoder().encodeToString(seal(keyId, plaintext))))
+                        .append("KeyId", new BsonString(keyId));
+            } else if ("TrentService.Decrypt".equals(target)) {
+                decryptRequests.incrementAndGet();
+                ByteBuffer blob = ByteBuffer.wrap(Base64.getDecoder().decode(request.getString("CiphertextBlob").getValue()));
+                byte[] keyId = new byte[blob.getShort()];
+                blob.get(keyId);
+                byte[] plaintext = open(blob);
+                response = new BsonDocument("Plaintext", new BsonString(Base64.getEncoder().encodeToString(plaintext)))
+                        .append("KeyId", new BsonString(new String(keyId, StandardCharsets.UTF_8)));
+            } else {
+                status = 400;
+                response = error("UnknownOperationException", "unsupported target " + target);
+            }
+        } catch (RuntimeException | GeneralSecurityException e) {
+            status = 400;
+            response = error("InvalidCiphertextException", String.valueOf(e.getMessage()));
+        }
+
+        byte[] bytes = response.toJson().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/x-amz-json-1.1");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static BsonDocument error (String type, String message) {
+        return new BsonDocument("__type", new BsonString(type)).append("message", new BsonString(message));
+    }
+
+    /* Blob layout: key id length, key id, 12-byte IV, AES-GCM ciphertext. */
+    private byte[] seal (String keyId, byte[] plaintext) throws GeneralSecurityException {
+        byte[] keyIdBytes = keyId.getBytes(StandardCharsets.UTF_8);
+        byte[] iv = new byte[12];
+        secureRandom.nextBytes(iv);
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, masterKey, new GCMParameterSpec(128, iv));
+        byte[] ciphertext = cipher.doFinal(plaintext);
+        return ByteBuffer.allocate(2 + keyIdBytes.length + iv.length + ciphertext.length)
+                .putShort((short) keyIdBytes.length).put(keyIdBytes).put(iv).put(ciphertext).array();
+    }
+
+    private byte[] open (ByteBuffer blob) throws GeneralSecurityException {
+        byte[] iv = new byte[12];
+        blob.get(iv);
+        byte[] ciphertext = new byte[blob.remaining()];
+        blob.get(ciphertext);
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.DECRYPT_MODE, masterKey, new GCMParameterSpec(128, iv));
+        return cipher.doFinal(ciphertext);
+    }
+
+    public static void main(String[] args) throws IOException, GeneralSecurityException {
+        KmsStandIn kms = fromEnv();
+        kms.start();
+        System.out.println("KMS stand-in listening on port " + Util.intFromEnv("KMS_STANDIN_PORT", 443));
+    }
+}
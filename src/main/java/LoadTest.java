@@ -0,0 +1,160 @@
+import com.mongodb.AutoEncryptionSettings;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Indexes;
+import org.HdrHistogram.Histogram;
+import org.bson.*;
+import org.bson.codecs.UuidCodec;
+import org.bson.codecs.configuration.CodecRegistry;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.bson.codecs.configuration.CodecRegistries.fromCodecs;
+import static org.bson.codecs.configuration.CodecRegistries.fromRegistries;
+
+/*
+ * Runs concurrent workers mixing inserts and equality finds on the deterministically encrypted "encrypted" field of
+ * external-schema.json, through shared auto-encrypting clients, and reports latency percentiles per operation.
+ */
+public class LoadTest {
+    private final int workers;
+    private final int clients;
+    private final int seconds;
+    private final int findPercent;
+    private final int preload;
+    private final boolean virtualThreads;
+    /* Index of the next document to insert. Document i has "encrypted" set to "value-" + i. */
+    private final AtomicLong nextValue = new AtomicLong();
+
+    LoadTest (int workers, int clients, int seconds, int findPercent, int preload, boolean virtualThreads) {
+        this.workers = workers;
+        this.clients = clients;
+        this.seconds = seconds;
+        this.findPercent = findPercent;
+        this.preload = preload;
+        this.virtualThreads = virtualThreads;
+    }
+
+    /* Per-worker latency histograms in microseconds, merged once the run ends. */
+    private static class Latencies {
+        final Histogram insert = new Histogram(3600L * 1000 * 1000, 3);
+        final Histogram find = new Histogram(3600L * 1000 * 1000, 3);
+    }
+
+    private static ExecutorService newExecutor (int workers, boolean virtualThreads) {
+        if (!virtualThreads) {
+            return Executors.newFixedThreadPool(workers);
+        }
+        /* Virtual threads need JDK 21+, but the project targets Java 8, so look the factory up reflectively. */
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException roe) {
+            throw new IllegalArgumentException("virtual threads are not available on this JDK", roe);
+        }
+    }
+
+    private Latencies work (MongoCollection<BsonDocument> coll, long deadline) {
+        Latencies latencies = new Latencies();
+        Random random = ThreadLocalRandom.current();
+        while (System.nanoTime() < deadline) {
+            long start = System.nanoTime();
+            if (random.nextInt(100) < findPercent) {
+                /* Only look up preloaded values, which are known to be committed. */
+                long i = random.nextInt(preload);
+                BsonDocument found = coll.find(new BsonDocument("encrypted", new BsonString("value-" + i))).first();
+                latencies.find.recordValue((System.nanoTime() - start) / 1000);
+                Util.doAssert(found != null);
+            } else {
+                coll.insertOne(new BsonDocument("encrypted", new BsonString("value-" + nextValue.getAndIncrement())));
+                latencies.insert.recordValue((System.nanoTime() - start) / 1000);
+            }
+        }
+        return latencies;
+    }
+
+    private void run () throws InterruptedException {
+        if (findPercent > 0 && preload <= 0) {
+            throw new IllegalArgumentException("finds need LOAD_PRELOAD documents to look up");
+        }
+        CodecRegistry codecRegistry = fromRegistries(
+                fromCodecs(new UuidCodec(UuidRepresentation.STANDARD)), MongoClientSettings.getDefaultCodecRegistry());
+        MongoClientSettings clientSettings = MongoClientSettings.builder().codecRegistry(codecRegistry).build();
+
+        /* Recreate admin.datakeys with the local key and an indexed, empty db.coll. */
+        MongoClient client = MongoClients.create(clientSettings);
+        Util.resetKeyVault(client, "admin.datakeys", "./external/external-key.json");
+        client.getDatabase("db").getCollection("coll").drop();
+        client.getDatabase("db").getCollection("coll").createIndex(Indexes.ascending("encrypted"));
+
+        Map<String, BsonDocument> schemaMap = new HashMap<>();
+        schemaMap.put("db.coll", Util.rawBsonDocumentFromPath("./external/external-schema.json"));
+        AutoEncryptionSettings autoEncryptionSettings = AutoEncryptionSettings.builder()
+                .keyVaultNamespace("admin.datakeys")
+                .kmsProviders(Util.localKmsProviders())
+                .schemaMap(schemaMap)
+                .build();
+        List<MongoClient> clients_encrypted = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            clients_encrypted.add(MongoClients.create(MongoClientSettings.builder()
+                    .codecRegistry(codecRegistry)
+                    .autoEncryptionSettings(autoEncryptionSettings)
+                    .build()));
+        }
+
+        MongoCollection<BsonDocument> preloadColl = clients_encrypted.get(0).getDatabase("db").getCollection("coll", BsonDocument.class);
+        List<BsonDocument> batch = new ArrayList<>();
+        for (int i = 0; i < preload; i++) {
+            batch.add(new BsonDocument("encrypted", new BsonString("value-" + nextValue.getAndIncrement())));
+        }
+        if (!batch.isEmpty()) {
+            preloadColl.insertMany(batch);
+        }
+
+        ExecutorService pool = newExecutor(workers, virtualThreads);
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        List<Future<Latencies>> results = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int i = 0; i < workers; i++) {
+            final MongoCollection<BsonDocument> coll = clients_encrypted.get(i % clients)
+                    .getDatabase("db").getCollection("coll", BsonDocument.class);
+            results.add(pool.submit(new Callable<Latencies>() {
+                @Override
+                public Latencies call() {
+                    return work(coll, deadline);
+                }
+            }));
+        }
+        Latencies total = new Latencies();
+        for (Future<Latencies> result : results) {
+            Latencies latencies = Util.await(result);
+            total.insert.add(latencies.insert);
+            total.find.add(latencies.find);
+        }
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        pool.shutdown();
+        pool.awaitTermination(1, TimeUnit.MINUTES);
+
+        System.out.println(String.format("%d %s workers on %d clients, %d%% finds, %.1f s",
+                workers, virtualThreads ? "virtual" : "platform", clients, findPercent, elapsed));
+        System.out.println("insert: " + Util.summarize(total.insert, elapsed));
+        System.out.println("find:   " + Util.summarize(total.find, elapsed));
+
+        for (MongoClient client_encrypted : clients_encrypted) {
+            client_encrypted.close();
+        }
+        client.close();
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        new LoadTest(Util.intFromEnv("LOAD_WORKERS", 2 * Runtime.getRuntime().availableProcessors()),
+                Util.intFromEnv("LOAD_CLIENTS", 1),
+                Util.intFromEnv("LOAD_SECONDS", 30),
+                Util.intFromEnv("LOAD_FIND_PERCENT", 50),
+                Util.intFromEnv("LOAD_PRELOAD", 1000),
+                "virtual".equals(System.getenv("LOAD_THREADS"))).run();
+    }
+}
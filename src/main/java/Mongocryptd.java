@@ -0,0 +1,160 @@
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import org.bson.*;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * A mongocryptd started ahead of the auto-encrypting clients instead of by the driver on first use. start() spawns
+ * the local binary and waits until it answers, and warm() sends it a marking request so its first real one is not
+ * also its first ever. Clients use it by passing extraOptions(), which also stops the driver spawning its own.
+ */
+class Mongocryptd implements Closeable {
+    private static final String DETERMINISTIC = "AEAD_AES_256_CBC_HMAC_SHA_512-Deterministic";
+
+    private final String path;
+    private final int port;
+    private final int startTimeoutMillis;
+    private Process process;
+    private File log;
+    private MongoClient client;
+    private long startNanos;
+    private long warmNanos;
+
+    Mongocryptd (String path, int port, int startTimeoutMillis) {
+        this.path = path;
+        this.port = port;
+        this.startTimeoutMillis = startTimeoutMillis;
+    }
+
+    /* Pre-spawned and warmed if MONGOCRYPTD_PRESPAWN is set, otherwise null (the driver spawns mongocryptd). */
+    static Mongocryptd fromEnv () {
+        if (System.getenv("MONGOCRYPTD_PRESPAWN") == null) {
+            return null;
+        }
+        Mongocryptd mongocryptd = new Mongocryptd(spawnPath(), Util.intFromEnv("MONGOCRYPTD_PORT", 27020),
+                Util.intFromEnv("MONGOCRYPTD_START_TIMEOUT_MS", 10000));
+        mongocryptd.start();
+        mongocryptd.warm();
+        return mongocryptd;
+    }
+
+    /* The locally installed binary: MONGOCRYPTD_PATH, or "mongocryptd" on the PATH. */
+    static String spawnPath () {
+        String path = System.getenv("MONGOCRYPTD_PATH");
+        return path == null ? "mongocryptd" : path;
+    }
+
+    /* Arguments for a mongocryptd on 'port'. mongocryptd refuses to start while its pid file is held, so each gets its own. */
+    static List<String> spawnArgs (int port) throws IOException {
+        File pidFile = File.createTempFile("mongocryptd-" + port + "-", ".pid");
+        pidFile.deleteOnExit();
+        return Arrays.asList("--port=" + port, "--pidfilepath=" + pidFile.getAbsolutePath(), "--idleShutdownTimeoutSecs=60");
+    }
+
+    String uri () {
+        return "mongodb://localhost:" + port;
+    }
+
+    /* The AutoEncryptionSettings extra options that make a client use this mongocryptd. */
+    Map<String, Object> extraOptions () {
+        Map<String, Object> extraOptions = new HashMap<>();
+        extraOptions.put("mongocryptdURI", uri());
+        extraOptions.put("mongocryptdBypassSpawn", true);
+        return extraOptions;
+    }
+
+    /* Whether something already accepts connections on 'port', e.g. a driver-spawned mongocryptd still idling. */
+    private static boolean listening (int port) {
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress("localhost", port), 1000);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /*
+     * Spawn mongocryptd and block until it replies to isMaster. Fails if the port is already taken, or if the spawned
+     * process has exited by the time a reply comes, since the reply then came from some other mongocryptd.
+     */
+    void start () {
+        if (listening(port)) {
+            throw new IllegalStateException("port " + port + " is already in use, e.g. by an earlier mongocryptd");
+        }
+        long start = System.nanoTime();
+        try {
+            log = File.createTempFile("mongocryptd-" + port + "-", ".log");
+            List<String> command = new ArrayList<>();
+            command.add(path);
+            command.addAll(spawnArgs(port));
+            process = new ProcessBuilder(command)
+                    .redirectErrorStream(true)
+                    .redirectOutput(log)
+                    .start();
+        } catch (IOException e) {
+            throw new IllegalStateException("could not spawn " + path, e);
+        }
+        /* Server selection retries until mongocryptd listens, so its timeout bounds the wait. */
+        client = MongoClients.create(uri() + "/?serverSelectionTimeoutMS=" + startTimeoutMillis);
+        try {
+            client.getDatabase("admin").runCommand(new BsonDocument("isMaster", new BsonInt32(1)));
+        } catch (RuntimeException e) {
+            close();
+            throw new IllegalStateException("mongocryptd did not start on port " + port + ", see " + log, e);
+        }
+        if (!process.isAlive()) {
+            int exitValue = process.exitValue();
+            close();
+            throw new IllegalStateException("mongocryptd exited with " + exitValue + " but port " + port
+                    + " answered, so another process holds it, see " + log);
+        }
+        startNanos = System.nanoTime() - start;
+    }
+
+    /* Mark one deterministically encrypted field, which is what the first auto-encrypted insert asks for. */
+    void warm () {
+        long start = System.nanoTime();
+        BsonDocument schema = new BsonDocument("bsonType", new BsonString("object"))
+                .append("properties", new BsonDocument("x", new BsonDocument("encrypt", new BsonDocument()
+                        .append("keyId", new BsonArray(Collections.<BsonValue>singletonList(Util.LOCAL_KEY_ID)))
+                        .append("bsonType", new BsonString("string"))
+                        .append("algorithm", new BsonString(DETERMINISTIC)))));
+        BsonDocument reply = client.getDatabase("db").runCommand(new BsonDocument("insert", new BsonString("warmup"))
+                .append("documents", new BsonArray(Collections.<BsonValue>singletonList(
+                        new BsonDocument("_id", new BsonInt32(0)).append("x", new BsonString("warmup")))))
+                .append("jsonSchema", schema)
+                .append("isRemoteSchema", BsonBoolean.FALSE), BsonDocument.class);
+        Util.doAssert(reply.getBoolean("hasEncryptionPlaceholders").getValue());
+        warmNanos = System.nanoTime() - start;
+    }
+
+    /* Time from spawning to the first reply, and taken by warm(), in milliseconds. */
+    String report () {
+        return String.format("mongocryptd on port %d: started in %.1f ms, warmed in %.1f ms", port,
+                startNanos / 1e6, warmNanos / 1e6);
+    }
+
+    @Override
+    public void close () {
+        if (client != null) {
+            client.close();
+            client = null;
+        }
+        if (process != null) {
+            process.destroy();
+            try {
+                process.waitFor(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            process = null;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * A loopback TCP proxy in front of mongocryptd that counts the commands sent to it and the time until each reply.
+ * The driver does not report its mongocryptd connection to CommandListeners, so point the "mongocryptdURI" extra
+ * option at this proxy to observe it. Handshakes and monitoring (isMaster) are forwarded without being counted.
+ */
+class MongocryptdProxy {
+    private static final int OP_MSG = 2013;
+
+    private final ServerSocket serverSocket;
+    private final int upstreamPort;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final AtomicLong commands = new AtomicLong();
+    private final AtomicLong commandNanos = new AtomicLong();
+
+    MongocryptdProxy (int upstreamPort) throws IOException {
+        this.upstreamPort = upstreamPort;
+        this.serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+    }
+
+    /* The port of the mongocryptd this proxy forwards to. */
+    int upstreamPort () {
+        return upstreamPort;
+    }
+
+    int port () {
+        return serverSocket.getLocalPort();
+    }
+
+    /* The "mongocryptdURI" to pass in AutoEncryptionSettings extra options. */
+    String uri () {
+        return "mongodb://localhost:" + port();
+    }
+
+    long commands () {
+        return commands.get();
+    }
+
+    long commandNanos () {
+        return commandNanos.get();
+    }
+
+    void start () {
+        executor.submit(new Runnable() {
+            @Override
+            public void run () {
+                while (!serverSocket.isClosed()) {
+                    try {
+                        final Socket client = serverSocket.accept();
+                        executor.submit(new Runnable() {
+                            @Override
+                            public void run () {
+                                relay(client);
+                            }
+                        });
+                    } catch (IOException ioe) {
+                        /* Closed by stop(). */
+                    }
+                }
+            }
+        });
+    }
+
+    void stop () throws IOException {
+        serverSocket.close();
+        executor.shutdownNow();
+    }
+
+    private void relay (final Socket client) {
+        final Socket upstream;
+        try {
+            upstream = new Socket(InetAddress.getLoopbackAddress(), upstreamPort);
+        } catch (IOException ioe) {
+            /* mongocryptd is not up yet; the driver will spawn it and retry. */
+            close(client);
+            return;
+        }
+        /* Send time of each forwarded request in order, or -1 for requests that are not counted. */
+        final Queue<Long> sent = new ConcurrentLinkedQueue<>();
+        executor.submit(new Runnable() {
+            @Override
+            public void run () {
+                try {
+                    InputStream in = upstream.getInputStream();
+                    OutputStream out = client.getOutputStream();
+                    byte[] message;
+                    while ((message = readMessage(in)) != null) {
+                        Long sentAt = sent.poll();
+                        if (sentAt != null && sentAt >= 0) {
+                            commands.incrementAndGet();
+                            commandNanos.addAndGet(System.nanoTime() - sentAt);
+                        }
+                        out.write(message);
+                        out.flush();
+                    }
+                } catch (IOException ioe) {
+                    /* Either side closed. */
+                } finally {
+                    close(client);
+                    close(upstream);
+                }
+            }
+        });
+        try {
+            InputStream in = client.getInputStream();
+            OutputStream out = upstream.getOutputStream();
+            byte[] message;
+            while ((message = readMessage(in)) != null) {
+                String command = commandName(message);
+                sent.add(command == null || command.equalsIgnoreCase("isMaster") ? -1 : System.nanoTime());
+                out.write(message);
+                out.flush();
+            }
+        } catch (IOException ioe) {
+            /* Either side closed. */
+        } finally {
+            close(client);
+            close(upstream);
+        }
+    }
+
+    /* A whole wire protocol message, or null at end of stream. */
+    private static byte[] readMessage (InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        byte[] lengthBytes = new byte[4];
+        int first = data.read();
+        if (first < 0) {
+            return null;
+        }
+        lengthBytes[0] = (byte) first;
+        data.readFully(lengthBytes, 1, 3);
+        int length = ByteBuffer.wrap(lengthBytes).order(ByteOrder.LITTLE_ENDIAN).getInt();
+        byte[] message = new byte[length];
+        System.arraycopy(lengthBytes, 0, message, 0, 4);
+        data.readFully(message, 4, length - 4);
+        return message;
+    }
+
+    /* The command name of an OP_MSG whose first section is the command document, or null. */
+    private static String commandName (byte[] message) {
+        ByteBuffer buffer = ByteBuffer.wrap(message).order(ByteOrder.LITTLE_ENDIAN);
+        /* Header: length, requestID, responseTo, opCode. Then flagBits, section kind, document length, element type. */
+        if (message.length < 27 || buffer.getInt(12) != OP_MSG || message[20] != 0) {
+            return null;
+        }
+        int start = 26;
+        int end = start;
+        while (end < message.length && message[end] != 0) {
+            end++;
+        }
+        return new String(message, start, end - start, StandardCharsets.UTF_8);
+    }
+
+    private static void close (Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ioe) {
+            /* Already closed. */
+        }
+    }
+}
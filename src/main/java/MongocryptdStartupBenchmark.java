@@ -0,0 +1,129 @@
+import com.mongodb.AutoEncryptionSettings;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import org.bson.*;
+
+import java.io.IOException;
+import java.util.*;
+
+/*
+ * Time from creating an auto-encrypting client to its first insert completing, with mongocryptd:
+ *   cold:    spawned by the driver when the client is created (the default).
+ *   spawned: started beforehand with Mongocryptd.start(), but never sent a marking request.
+ *   warm:    started beforehand and warmed with Mongocryptd.warm().
+ * Every round of every mode uses a new port, so a cold run never finds a mongocryptd left over from an earlier one.
+ * Driver-spawned instances cannot be stopped from here and exit after their 60 second idle timeout.
+ */
+public class MongocryptdStartupBenchmark {
+    private static final String[] MODES = {"cold", "spawned", "warm"};
+
+    private final int rounds;
+    private int nextPort;
+    private final BsonDocument schema = Util.bsonDocumentFromPath("./corpus/corpus-schema.json");
+    private final SyntheticCorpus docs;
+
+    MongocryptdStartupBenchmark (int rounds, int basePort) {
+        this.rounds = rounds;
+        this.nextPort = basePort;
+        this.docs = new SyntheticCorpus(Util.bsonDocumentFromPath("./corpus/corpus.json"), schema,
+                Collections.singleton("local"), 2L * rounds * MODES.length, 8, 0);
+    }
+
+    private static class Timings {
+        final List<Long> first = new ArrayList<>();
+        final List<Long> second = new ArrayList<>();
+        final List<Long> startup = new ArrayList<>();
+    }
+
+    private static String summarize (List<Long> nanos) {
+        if (nanos.isEmpty()) {
+            return "-";
+        }
+        List<Long> sorted = new ArrayList<>(nanos);
+        Collections.sort(sorted);
+        long total = 0;
+        for (long n : sorted) {
+            total += n;
+        }
+        return String.format("median %7.1f ms, mean %7.1f ms, max %7.1f ms", sorted.get(sorted.size() / 2) / 1e6,
+                total / 1e6 / sorted.size(), sorted.get(sorted.size() - 1) / 1e6);
+    }
+
+    private void round (String mode, Timings timings) throws IOException {
+        int port = nextPort++;
+        Mongocryptd mongocryptd = null;
+        Map<String, Object> extraOptions;
+        if (mode.equals("cold")) {
+            extraOptions = new HashMap<>();
+            extraOptions.put("mongocryptdURI", "mongodb://localhost:" + port);
+            extraOptions.put("mongocryptdSpawnPath", Mongocryptd.spawnPath());
+            extraOptions.put("mongocryptdSpawnArgs", Mongocryptd.spawnArgs(port));
+        } else {
+            long start = System.nanoTime();
+            mongocryptd = new Mongocryptd(Mongocryptd.spawnPath(), port, 10000);
+            mongocryptd.start();
+            if (mode.equals("warm")) {
+                mongocryptd.warm();
+            }
+            timings.startup.add(System.nanoTime() - start);
+            extraOptions = mongocryptd.extraOptions();
+        }
+
+        Map<String, BsonDocument> schemaMap = new HashMap<>();
+        schemaMap.put("db.startup", schema);
+        long start = System.nanoTime();
+        MongoClient client_encrypted = MongoClients.create(MongoClientSettings.builder()
+                .codecRegistry(Fixtures.CODEC_REGISTRY)
+                .autoEncryptionSettings(AutoEncryptionSettings.builder()
+                        .keyVaultNamespace("admin.datakeys")
+                        .kmsProviders(Util.localKmsProviders())
+                        .schemaMap(schemaMap)
+                        .extraOptions(extraOptions)
+                        .build())
+                .build());
+        MongoCollection<RawBsonDocument> coll = client_encrypted.getDatabase("db").getCollection("startup", RawBsonDocument.class);
+        coll.insertOne(docs.next());
+        timings.first.add(System.nanoTime() - start);
+        start = System.nanoTime();
+        coll.insertOne(docs.next());
+        timings.second.add(System.nanoTime() - start);
+        client_encrypted.close();
+        if (mongocryptd != null) {
+            mongocryptd.close();
+        }
+    }
+
+    private void run () throws IOException {
+        MongoClient client = MongoClients.create(MongoClientSettings.builder().codecRegistry(Fixtures.CODEC_REGISTRY).build());
+        client.getDatabase("db").getCollection("startup").drop();
+        Util.resetKeyVault(client, "admin.datakeys", "./corpus/corpus-key-local.json");
+
+        Map<String, Timings> results = new LinkedHashMap<>();
+        for (String mode : MODES) {
+            results.put(mode, new Timings());
+        }
+        /* Alternate the modes within each round, so drift over the run affects them equally. */
+        for (int i = 0; i < rounds; i++) {
+            for (String mode : MODES) {
+                round(mode, results.get(mode));
+            }
+        }
+        Util.doAssert(client.getDatabase("db").getCollection("startup").countDocuments() == 2L * rounds * MODES.length);
+        client.close();
+
+        System.out.println(String.format("%d rounds, mongocryptd %s", rounds, Mongocryptd.spawnPath()));
+        for (Map.Entry<String, Timings> entry : results.entrySet()) {
+            System.out.println(entry.getKey() + ":");
+            System.out.println("  first insert:  " + summarize(entry.getValue().first));
+            System.out.println("  second insert: " + summarize(entry.getValue().second));
+            System.out.println("  startup:       " + summarize(entry.getValue().startup));
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        new MongocryptdStartupBenchmark(Util.intFromEnv("STARTUP_ROUNDS", 5),
+                Util.intFromEnv("STARTUP_BASE_PORT", 27100)).run();
+    }
+}
@@ -0,0 +1,147 @@
+import org.bson.BsonSerializationException;
+import org.bson.BsonValue;
+import org.bson.RawBsonDocument;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/* Access to the top-level fields of a RawBsonDocument as byte slices, without decoding their values. */
+class RawFields {
+    /* A top-level value: its BSON type and its bytes. */
+    private static class Slice {
+        final byte type;
+        final ByteBuffer bytes;
+
+        Slice (byte type, ByteBuffer bytes) {
+            this.type = type;
+            this.bytes = bytes;
+        }
+    }
+
+    private static Map<String, Slice> scan (RawBsonDocument doc) {
+        ByteBuffer buffer = doc.getByteBuffer().asNIO().order(ByteOrder.LITTLE_ENDIAN);
+        int start = buffer.position();
+        int end = start + buffer.getInt(start) - 1;
+        Map<String, Slice> slices = new LinkedHashMap<>();
+        int position = start + 4;
+        while (position < end) {
+            byte type = buffer.get(position++);
+            int nameStart = position;
+            while (buffer.get(position) != 0) {
+                position++;
+            }
+            byte[] name = new byte[position - nameStart];
+            for (int i = 0; i < name.length; i++) {
+                name[i] = buffer.get(nameStart + i);
+            }
+            position++;
+            int length = valueLength(type, buffer, position);
+            ByteBuffer slice = buffer.duplicate();
+            slice.position(position).limit(position + length);
+            slices.put(new String(name, StandardCharsets.UTF_8), new Slice(type, slice.slice()));
+            position += length;
+        }
+        return slices;
+    }
+
+    /*
+     * The value of 'slice' decoded from its bytes alone: documents as RawBsonDocuments over a copy of them, anything
+     * else by wrapping the bytes in a one-field document.
+     */
+    private static BsonValue value (Slice slice) {
+        if (slice.type == 0x03) {
+            byte[] copy = new byte[slice.bytes.remaining()];
+            slice.bytes.duplicate().get(copy);
+            return new RawBsonDocument(copy);
+        }
+        /* length, type, empty name, value, terminator */
+        ByteBuffer single = ByteBuffer.allocate(4 + 1 + 1 + slice.bytes.remaining() + 1).order(ByteOrder.LITTLE_ENDIAN);
+        single.putInt(single.capacity()).put(slice.type).put((byte) 0).put(slice.bytes.duplicate()).put((byte) 0);
+        return new RawBsonDocument(single.array()).get("");
+    }
+
+    /* Top-level fields of 'doc' in document order, with document values left as RawBsonDocuments over their bytes. */
+    static Map<String, BsonValue> fields (RawBsonDocument doc) {
+        Map<String, BsonValue> fields = new LinkedHashMap<>();
+        for (Map.Entry<String, Slice> entry : scan(doc).entrySet()) {
+            fields.put(entry.getKey(), value(entry.getValue()));
+        }
+        return fields;
+    }
+
+    /*
+     * Add a failure for every top-level field whose BSON type or value bytes differ between 'expected' and 'actual'.
+     * The type matters on its own: string, javascript and symbol share an encoding, as do double, date, timestamp
+     * and int64.
+     */
+    static void diff (RawBsonDocument expected, RawBsonDocument actual, List<String> failures) {
+        Map<String, Slice> actualSlices = scan(actual);
+        Map<String, Slice> expectedSlices = scan(expected);
+        for (Map.Entry<String, Slice> entry : expectedSlices.entrySet()) {
+            Slice actualValue = actualSlices.get(entry.getKey());
+            if (actualValue == null) {
+                failures.add(entry.getKey() + ": missing");
+            } else if (actualValue.type != entry.getValue().type) {
+                failures.add(String.format("%s: BSON type 0x%02X, expected 0x%02X", entry.getKey(),
+                        actualValue.type, entry.getValue().type));
+            } else if (!actualValue.bytes.equals(entry.getValue().bytes)) {
+                failures.add(entry.getKey() + ": value bytes differ");
+            }
+        }
+        for (String field : actualSlices.keySet()) {
+            if (!expectedSlices.containsKey(field)) {
+                failures.add(field + ": unexpected field");
+            }
+        }
+    }
+
+    /* Length of a value of BSON 'type' starting at 'position'. */
+    private static int valueLength (byte type, ByteBuffer buffer, int position) {
+        switch (type) {
+            case 0x01: // double
+            case 0x09: // date
+            case 0x11: // timestamp
+            case 0x12: // int64
+                return 8;
+            case 0x02: // string
+            case 0x0D: // javascript
+            case 0x0E: // symbol
+                return 4 + buffer.getInt(position);
+            case 0x03: // document
+            case 0x04: // array
+            case 0x0F: // javascript with scope
+                return buffer.getInt(position);
+            case 0x05: // binary
+                return 4 + 1 + buffer.getInt(position);
+            case 0x06: // undefined
+            case 0x0A: // null
+            case (byte) 0xFF: // min key
+            case 0x7F: // max key
+                return 0;
+            case 0x07: // objectId
+                return 12;
+            case 0x08: // boolean
+                return 1;
+            case 0x0B: { // regular expression: two cstrings
+                int end = position;
+                for (int strings = 0; strings < 2; strings++) {
+                    while (buffer.get(end) != 0) {
+                        end++;
+                    }
+                    end++;
+                }
+                return end - position;
+            }
+            case 0x0C: // dbPointer: string, then objectId
+                return 4 + buffer.getInt(position) + 12;
+            case 0x10: // int32
+                return 4;
+            case 0x13: // decimal128
+                return 16;
+            default:
+                throw new BsonSerializationException("unknown BSON type " + type);
+        }
+    }
+}
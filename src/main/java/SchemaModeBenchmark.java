@@ -0,0 +1,175 @@
+import com.mongodb.AutoEncryptionSettings;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Filters;
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+import org.bson.*;
+import org.bson.codecs.BsonDocumentCodec;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Runs the same insert and find workload with the server-side schema (fetched from the collection validator with
+ * listCollections) and with a local schemaMap, while scaling the schema and the number of collections the client
+ * touches. Each configuration starts with a new auto-encrypting client, so libmongocrypt's collection info cache is
+ * cold. listCollections calls are counted with a CommandListener and mongocryptd calls with a MongocryptdProxy.
+ *
+ * The schema is scaled by repeating the properties of corpus-schema.json with a suffix. The copies are never present
+ * in the documents, so they only add to the size of the listCollections replies and of the schema sent to mongocryptd.
+ */
+public class SchemaModeBenchmark {
+    private static final String DB = "schema_bench";
+
+    private final int ops;
+    private final int[] scales;
+    private final int[] collectionCounts;
+    private final MongocryptdProxy proxy;
+    /* Makes the driver spawn mongocryptd on the proxy's upstream port rather than the default 27020. */
+    private final List<String> spawnArgs;
+    private final BsonDocument corpus = Util.bsonDocumentFromPath("./corpus/corpus.json");
+    private final BsonDocument schema = Util.bsonDocumentFromPath("./corpus/corpus-schema.json");
+
+    SchemaModeBenchmark (int ops, int[] scales, int[] collectionCounts, MongocryptdProxy proxy) throws IOException {
+        this.ops = ops;
+        this.scales = scales;
+        this.collectionCounts = collectionCounts;
+        this.proxy = proxy;
+        this.spawnArgs = Mongocryptd.spawnArgs(proxy.upstreamPort());
+    }
+
+    /* Counts listCollections commands and the time the server took for them. */
+    private static class ListCollectionsCounter implements CommandListener {
+        final AtomicLong count = new AtomicLong();
+        final AtomicLong nanos = new AtomicLong();
+
+        @Override
+        public void commandStarted (CommandStartedEvent event) {
+        }
+
+        @Override
+        public void commandSucceeded (CommandSucceededEvent event) {
+            if (event.getCommandName().equals("listCollections")) {
+                count.incrementAndGet();
+                nanos.addAndGet(event.getElapsedTime(TimeUnit.NANOSECONDS));
+            }
+        }
+
+        @Override
+        public void commandFailed (CommandFailedEvent event) {
+            if (event.getCommandName().equals("listCollections")) {
+                count.incrementAndGet();
+                nanos.addAndGet(event.getElapsedTime(TimeUnit.NANOSECONDS));
+            }
+        }
+    }
+
+    /* corpus-schema.json with 'scale' copies of its properties, all but the first with a "_<copy>" suffix. */
+    private BsonDocument scaledSchema (int scale) {
+        BsonDocument properties = new BsonDocument();
+        for (int copy = 0; copy < scale; copy++) {
+            for (Map.Entry<String, BsonValue> entry : schema.getDocument("properties").entrySet()) {
+                properties.append(copy == 0 ? entry.getKey() : entry.getKey() + "_" + copy, entry.getValue());
+            }
+        }
+        return new BsonDocument("bsonType", new BsonString("object")).append("properties", properties);
+    }
+
+    private void run (MongoClient client, boolean useLocalSchema, int scale, int collections) {
+        BsonDocument scaled = scaledSchema(scale);
+        int schemaBytes = new RawBsonDocument(scaled, new BsonDocumentCodec()).getByteBuffer().remaining();
+        MongoDatabase db = client.getDatabase(DB);
+        db.drop();
+        Map<String, BsonDocument> schemaMap = new HashMap<>();
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < collections; i++) {
+            String name = "coll_" + i;
+            names.add(name);
+            BsonDocument create = new BsonDocument("create", new BsonString(name));
+            if (useLocalSchema) {
+                schemaMap.put(DB + "." + name, scaled);
+            } else {
+                create.append("validator", new BsonDocument("$jsonSchema", scaled));
+            }
+            db.runCommand(create);
+        }
+
+        Map<String, Object> extraOptions = new HashMap<>();
+        extraOptions.put("mongocryptdURI", proxy.uri());
+        extraOptions.put("mongocryptdSpawnArgs", spawnArgs);
+        AutoEncryptionSettings.Builder autoEncryptionSettingsBuilder = AutoEncryptionSettings.builder()
+                .keyVaultNamespace("admin.datakeys")
+                .kmsProviders(Util.localKmsProviders())
+                .extraOptions(extraOptions);
+        if (useLocalSchema) {
+            autoEncryptionSettingsBuilder.schemaMap(schemaMap);
+        }
+        ListCollectionsCounter listCollections = new ListCollectionsCounter();
+        MongoClient client_encrypted = MongoClients.create(MongoClientSettings.builder()
+                .codecRegistry(Fixtures.CODEC_REGISTRY)
+                .addCommandListener(listCollections)
+                .autoEncryptionSettings(autoEncryptionSettingsBuilder.build())
+                .build());
+        List<MongoCollection<RawBsonDocument>> colls = new ArrayList<>();
+        for (String name : names) {
+            colls.add(client_encrypted.getDatabase(DB).getCollection(name, RawBsonDocument.class));
+        }
+
+        SyntheticCorpus docs = new SyntheticCorpus(corpus, schema, Collections.singleton("local"), ops, 8, 0);
+        long mongocryptdCommands = proxy.commands();
+        long mongocryptdNanos = proxy.commandNanos();
+        long start = System.nanoTime();
+        for (int i = 0; docs.hasNext(); i++) {
+            RawBsonDocument doc = docs.next();
+            MongoCollection<RawBsonDocument> coll = colls.get(i % colls.size());
+            coll.insertOne(doc);
+            Util.doAssert(coll.find(Filters.eq("_id", doc.get("_id"))).first() != null);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        mongocryptdCommands = proxy.commands() - mongocryptdCommands;
+        mongocryptdNanos = proxy.commandNanos() - mongocryptdNanos;
+        client_encrypted.close();
+
+        /* Each op is an insert and a find. */
+        System.out.println(String.format(
+                "%-6s schema x%-3d (%7d bytes) %3d colls | %6.0f us/op | listCollections %5d, %6.1f us/op | mongocryptd %6d, %6.1f us/op",
+                useLocalSchema ? "local" : "server", scale, schemaBytes,
+                collections, seconds * 1e6 / ops,
+                listCollections.count.get(), listCollections.nanos.get() / 1e3 / ops,
+                mongocryptdCommands, mongocryptdNanos / 1e3 / ops));
+    }
+
+    private void run () {
+        MongoClient client = MongoClients.create(MongoClientSettings.builder().codecRegistry(Fixtures.CODEC_REGISTRY).build());
+        Util.resetKeyVault(client, "admin.datakeys", "./corpus/corpus-key-local.json");
+        System.out.println(String.format("%d ops per run, each an insert and a find by _id", ops));
+        for (int scale : scales) {
+            for (int collections : collectionCounts) {
+                run(client, false, scale, collections);
+                run(client, true, scale, collections);
+            }
+        }
+        client.close();
+    }
+
+    public static void main(String[] args) throws IOException {
+        MongocryptdProxy proxy = new MongocryptdProxy(Util.intFromEnv("MONGOCRYPTD_PORT", 27020));
+        proxy.start();
+        try {
+            new SchemaModeBenchmark(Util.intFromEnv("SCHEMA_BENCH_OPS", 1000),
+                    Util.intsFromEnv("SCHEMA_BENCH_SCALES", "1,4,16"),
+                    Util.intsFromEnv("SCHEMA_BENCH_COLLECTIONS", "1,4,16"),
+                    proxy).run();
+        } finally {
+            proxy.stop();
+        }
+    }
+}
@@ -0,0 +1,124 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+/*
+ * Runs the prose tests concurrently. Each suite (and each corpusTest variant) gets its own database "db_<suite>" and
+ * key vault "admin.datakeys_<suite>", so they do not drop each other's collections. All of them get their clients
+ * from one Fixtures, so they share the unencrypted client. Encrypted clients differ per suite since their namespaces do.
+ */
+public class SuiteRunner {
+    private final Fixtures fixtures;
+    private final int verbosity;
+
+    SuiteRunner (Fixtures fixtures, int verbosity) {
+        this.fixtures = fixtures;
+        this.verbosity = verbosity;
+    }
+
+    private String dbName (String suite) {
+        return "db_" + suite.replace('-', '_');
+    }
+
+    private String keyVaultNamespace (String suite) {
+        return "admin.datakeys_" + suite.replace('-', '_');
+    }
+
+    private Runnable suite (final String name) {
+        switch (name) {
+            case "corpus-server":
+            case "corpus-local":
+                return new Runnable() {
+                    @Override
+                    public void run () {
+                        new CorpusRunner(dbName(name), keyVaultNamespace(name), fixtures, 1, false, false, verbosity)
+                                .corpusTest(name.equals("corpus-local"));
+                    }
+                };
+            case "external-default":
+            case "external-auth":
+                return new Runnable() {
+                    @Override
+                    public void run () {
+                        new ExternalKeyVaultTest(dbName(name), keyVaultNamespace(name), fixtures)
+                                .runAuth(name.equals("external-auth"));
+                    }
+                };
+            case "view":
+                return new Runnable() {
+                    @Override
+                    public void run () {
+                        new ViewTest(dbName(name), keyVaultNamespace(name), fixtures).run();
+                    }
+                };
+            case "endpoint":
+                return new Runnable() {
+                    @Override
+                    public void run () {
+                        new EndpointTest(keyVaultNamespace(name), fixtures).run();
+                    }
+                };
+            default:
+                throw new IllegalArgumentException("unknown suite: " + name);
+        }
+    }
+
+    /* Run 'names' on 'parallelism' threads, returning true if all passed. */
+    private boolean run (List<String> names, int parallelism) throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(parallelism);
+        final Map<String, Long> nanos = new ConcurrentHashMap<>();
+        Map<String, Future<?>> futures = new LinkedHashMap<>();
+        long start = System.nanoTime();
+        for (final String name : names) {
+            final Runnable suite = suite(name);
+            futures.put(name, pool.submit(new Runnable() {
+                @Override
+                public void run () {
+                    long suiteStart = System.nanoTime();
+                    try {
+                        suite.run();
+                    } finally {
+                        nanos.put(name, System.nanoTime() - suiteStart);
+                    }
+                }
+            }));
+        }
+
+        boolean passed = true;
+        for (Map.Entry<String, Future<?>> entry : futures.entrySet()) {
+            String result = "passed";
+            try {
+                entry.getValue().get();
+            } catch (ExecutionException e) {
+                passed = false;
+                result = "FAILED: " + e.getCause();
+            }
+            System.out.println(String.format("%-18s %8.2f s  %s", entry.getKey(), nanos.get(entry.getKey()) / 1e9, result));
+        }
+        pool.shutdown();
+
+        double wall = (System.nanoTime() - start) / 1e9;
+        double sum = 0;
+        for (long suiteNanos : nanos.values()) {
+            sum += suiteNanos / 1e9;
+        }
+        System.out.println(String.format("%d suites on %d threads: %.2f s wall, %.2f s summed, %.2fx speedup",
+                names.size(), parallelism, wall, sum, sum / wall));
+        return passed;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        String suites = System.getenv("SUITES");
+        List<String> names = Arrays.asList((suites == null
+                ? "corpus-server,corpus-local,external-default,external-auth,view,endpoint" : suites).split(","));
+        Fixtures fixtures = Fixtures.fromEnv();
+        boolean passed;
+        try {
+            passed = new SuiteRunner(fixtures, Util.intFromEnv("CORPUS_VERBOSITY", 0))
+                    .run(names, Util.intFromEnv("SUITE_PARALLELISM", names.size()));
+            System.out.println(fixtures.report());
+        } finally {
+            fixtures.close();
+        }
+        Util.doAssert(passed);
+    }
+}
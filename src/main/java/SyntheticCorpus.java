@@ -0,0 +1,74 @@
+import org.bson.*;
+import org.bson.codecs.BsonDocumentCodec;
+
+import java.util.*;
+
+/*
+ * Lazily generates documents shaped like corpus.json with random values, one at a time, so memory use does not
+ * depend on how many are generated. Only the fields corpus-schema.json encrypts automatically are included.
+ */
+class SyntheticCorpus implements Iterator<RawBsonDocument> {
+    private static final BsonDocumentCodec CODEC = new BsonDocumentCodec();
+
+    /* corpus.json entries to generate, without their "value". */
+    private final List<Map.Entry<String, BsonDocument>> templates = new ArrayList<>();
+    private final Random random;
+    private final int valueSize;
+    private long remaining;
+
+    /* Generate 'count' documents using the auto-encrypted fields of 'corpus' whose kms is in 'kms'. */
+    SyntheticCorpus (BsonDocument corpus, BsonDocument schema, Set<String> kms, long count, int valueSize, long seed) {
+        BsonDocument properties = schema.getDocument("properties");
+        for (Map.Entry<String, BsonValue> entry : corpus.entrySet()) {
+            String field = entry.getKey();
+            if (field.equals("_id") || field.equals("altname_aws") || field.equals("altname_local")) {
+                continue;
+            }
+            BsonDocument subdoc = entry.getValue().asDocument();
+            if (!kms.contains(subdoc.getString("kms").getValue()) || !properties.containsKey(field)) {
+                continue;
+            }
+            BsonDocument valueSchema = properties.getDocument(field).getDocument("properties").getDocument("value");
+            if (!valueSchema.containsKey("encrypt")) {
+                continue;
+            }
+            BsonDocument template = new BsonDocument();
+            for (Map.Entry<String, BsonValue> meta : subdoc.entrySet()) {
+                if (!meta.getKey().equals("value")) {
+                    template.append(meta.getKey(), meta.getValue());
+                }
+            }
+            templates.add(new AbstractMap.SimpleImmutableEntry<>(field, template));
+        }
+        this.random = new Random(seed);
+        this.valueSize = valueSize;
+        this.remaining = count;
+    }
+
+    int fieldCount () {
+        return templates.size();
+    }
+
+    @Override
+    public boolean hasNext () {
+        return remaining > 0;
+    }
+
+    @Override
+    public RawBsonDocument next () {
+        if (remaining <= 0) {
+            throw new NoSuchElementException();
+        }
+        remaining--;
+        BsonDocument doc = new BsonDocument();
+        doc.append("_id", new BsonObjectId());
+        doc.append("altname_aws", new BsonString("aws"));
+        doc.append("altname_local", new BsonString("local"));
+        for (Map.Entry<String, BsonDocument> template : templates) {
+            BsonDocument subdoc = template.getValue().clone();
+            subdoc.append("value", CorpusValues.random(subdoc.getString("type").getValue(), random, valueSize));
+            doc.append(template.getKey(), subdoc);
+        }
+        return new RawBsonDocument(doc, CODEC);
+    }
+}
@@ -1,14 +1,44 @@
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoCollection;
+import org.HdrHistogram.Histogram;
+import org.bson.BsonBinary;
+import org.bson.BsonBinarySubType;
+import org.bson.BsonBinaryWriter;
 import org.bson.BsonDocument;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+import org.bson.codecs.DecoderContext;
+import org.bson.io.BasicOutputBuffer;
+import org.bson.json.JsonReader;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 public class Util {
+    static final BsonBinary LOCAL_KEY_ID = new BsonBinary(BsonBinarySubType.UUID_STANDARD,
+            Base64.getDecoder().decode("LOCALAAAAAAAAAAAAAAAAA=="));
+
+    /* Parse the Extended JSON file at 'path', streaming it straight from a reader. */
     static BsonDocument bsonDocumentFromPath(String path) {
-        try {
-            return BsonDocument.parse(new String(Files.readAllBytes(Paths.get(path)), StandardCharsets.UTF_8));
+        try (Reader reader = Files.newBufferedReader(Paths.get(path), StandardCharsets.UTF_8)) {
+            return new BsonDocumentCodec().decode(new JsonReader(reader), DecoderContext.builder().build());
         } catch (IOException ioe) {
             System.out.println(ioe);
             assert(false);
@@ -16,9 +46,153 @@ public class Util {
         return null;
     }
 
+    /*
+     * Load the Extended JSON file at 'path' as a read-only RawBsonDocument.
+     * The first load writes the BSON form to a "<path>.bson" sidecar, and later loads map the sidecar instead of
+     * parsing JSON. The sidecar is rebuilt whenever the SHA-256 of 'path' no longer matches "<path>.bson.sha256".
+     */
+    static RawBsonDocument rawBsonDocumentFromPath(String path) {
+        Path source = Paths.get(path);
+        Path sidecar = Paths.get(path + ".bson");
+        Path sidecarHash = Paths.get(path + ".bson.sha256");
+        try {
+            String hash = sha256(source);
+            if (Files.exists(sidecar) && Files.exists(sidecarHash)
+                    && new String(Files.readAllBytes(sidecarHash), StandardCharsets.UTF_8).equals(hash)) {
+                return mapRawBsonDocument(sidecar);
+            }
+
+            BasicOutputBuffer buffer = new BasicOutputBuffer();
+            try (Reader reader = Files.newBufferedReader(source, StandardCharsets.UTF_8);
+                 BsonBinaryWriter writer = new BsonBinaryWriter(buffer)) {
+                writer.pipe(new JsonReader(reader));
+            }
+            /* Write the sidecar before its hash so a concurrent reader never pairs a new hash with a stale sidecar. */
+            Path tmp = Files.createTempFile(sidecar.toAbsolutePath().getParent(), sidecar.getFileName().toString(), ".tmp");
+            try (OutputStream out = Files.newOutputStream(tmp)) {
+                buffer.pipe(out);
+            }
+            Files.move(tmp, sidecar, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            tmp = Files.createTempFile(sidecarHash.toAbsolutePath().getParent(), sidecarHash.getFileName().toString(), ".tmp");
+            Files.write(tmp, hash.getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp, sidecarHash, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            return new RawBsonDocument(buffer.getInternalBuffer(), 0, buffer.getPosition());
+        } catch (IOException ioe) {
+            throw new IllegalStateException("cannot load " + path, ioe);
+        }
+    }
+
+    private static RawBsonDocument mapRawBsonDocument(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            /* RawBsonDocument only wraps a byte[], so this is a single bulk copy out of the mapping. */
+            byte[] bytes = new byte[mapped.remaining()];
+            mapped.get(bytes);
+            return new RawBsonDocument(bytes);
+        }
+    }
+
+    private static String sha256(Path path) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException nsae) {
+            throw new IllegalStateException(nsae);
+        }
+        byte[] chunk = new byte[64 * 1024];
+        try (InputStream in = Files.newInputStream(path)) {
+            int n;
+            while ((n = in.read(chunk)) != -1) {
+                digest.update(chunk, 0, n);
+            }
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
     static void doAssert (boolean statement) {
         if (!statement) {
             throw new IllegalStateException("assertion failed");
         }
     }
+
+    /* Read an integer setting from the environment, falling back to 'defaultValue' if it is not set. */
+    static int intFromEnv (String name, int defaultValue) {
+        String value = System.getenv(name);
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        return Integer.parseInt(value);
+    }
+
+    /* Read a comma-separated list of integers from the environment, falling back to 'defaultValue'. */
+    static int[] intsFromEnv (String name, String defaultValue) {
+        String value = System.getenv(name);
+        String[] parts = (value == null || value.isEmpty() ? defaultValue : value).split(",");
+        int[] ints = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            ints[i] = Integer.parseInt(parts[i].trim());
+        }
+        return ints;
+    }
+
+    /* Wait for 'future', rethrowing any exception (or failed assert) raised by the task as-is. */
+    static <T> T await (Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(ie);
+        } catch (ExecutionException ee) {
+            Throwable cause = ee.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /* Map a corpus algo ("rand" or "det") to the full algorithm name. */
+    static String algorithm (String algo) {
+        if (algo.equals("rand")) return "AEAD_AES_256_CBC_HMAC_SHA_512-Random";
+        if (algo.equals("det")) return "AEAD_AES_256_CBC_HMAC_SHA_512-Deterministic";
+        throw new IllegalArgumentException("unknown algo: " + algo);
+    }
+
+    /* KMS providers with only the "local" provider, keyed by LOCAL_MASTERKEY. */
+    static Map<String, Map<String, Object>> localKmsProviders () {
+        if (System.getenv("LOCAL_MASTERKEY") == null) {
+            throw new IllegalArgumentException("no local masterkey set");
+        }
+        Map<String, Object> localMasterkey = new HashMap<>();
+        localMasterkey.put("key", Base64.getDecoder().decode(System.getenv("LOCAL_MASTERKEY")));
+        Map<String, Map<String, Object>> kmsProviders = new HashMap<>();
+        kmsProviders.put("local", localMasterkey);
+        return kmsProviders;
+    }
+
+    /* Drop the key vault collection at 'namespace' and insert the key documents read from 'paths'. */
+    static void resetKeyVault (MongoClient client, String namespace, String... paths) {
+        String[] parts = namespace.split("\\.", 2);
+        MongoCollection<BsonDocument> datakeys = client.getDatabase(parts[0]).getCollection(parts[1], BsonDocument.class);
+        datakeys.drop();
+        for (String path : paths) {
+            datakeys.insertOne(rawBsonDocumentFromPath(path));
+        }
+    }
+
+    /* One-line summary of a histogram of latencies in microseconds, with throughput over 'seconds'. */
+    static String summarize (Histogram histogram, double seconds) {
+        return String.format("%d ops, %.0f ops/s, p50 %d us, p99 %d us, p999 %d us, max %d us",
+                histogram.getTotalCount(), histogram.getTotalCount() / seconds,
+                histogram.getValueAtPercentile(50), histogram.getValueAtPercentile(99),
+                histogram.getValueAtPercentile(99.9), histogram.getMaxValue());
+    }
 }
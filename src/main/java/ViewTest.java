@@ -1,38 +1,41 @@
 import com.mongodb.*;
-import com.mongodb.client.MongoClients;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
 import com.mongodb.client.model.vault.EncryptOptions;
 import com.mongodb.client.vault.ClientEncryption;
-import com.mongodb.client.vault.ClientEncryptions;
 import org.bson.*;
-import org.bson.codecs.UuidCodec;
 import org.bson.codecs.configuration.CodecRegistry;
 import org.bson.json.JsonMode;
 import org.bson.json.JsonWriterSettings;
 import java.util.*;
 
-import static org.bson.codecs.configuration.CodecRegistries.fromCodecs;
-import static org.bson.codecs.configuration.CodecRegistries.fromRegistries;
-
 public class ViewTest {
     private MongoClient client, client_encrypted;
+    /* Database holding "view", and the key vault namespace, so concurrent runs can be isolated. */
+    private final String dbName;
+    private final String keyVaultNamespace;
+    /* Creates, shares and closes the clients. */
+    private final Fixtures fixtures;
+
+    ViewTest (String dbName, String keyVaultNamespace, Fixtures fixtures) {
+        this.dbName = dbName;
+        this.keyVaultNamespace = keyVaultNamespace;
+        this.fixtures = fixtures;
+    }
 
-    private void run () {
+    void run () {
         MongoClientSettings.Builder clientSettingsBuilder = MongoClientSettings.builder();
-        CodecRegistry codecRegistry = fromRegistries(
-                fromCodecs(new UuidCodec(UuidRepresentation.STANDARD)), MongoClientSettings.getDefaultCodecRegistry());
+        CodecRegistry codecRegistry = Fixtures.CODEC_REGISTRY;
         clientSettingsBuilder.codecRegistry(codecRegistry);
         MongoClientSettings clientSettings = clientSettingsBuilder.build();
-        client = MongoClients.create(clientSettings);
+        client = fixtures.client(clientSettings);
 
-        client.getDatabase("db").getCollection("view").drop();
+        client.getDatabase(dbName).getCollection("view").drop();
         BsonDocument createCmd = new BsonDocument().append("create", new BsonString("view")).append("viewOn", new BsonString("coll"));
-        BsonDocument doc = client.getDatabase("db").runCommand(createCmd, BsonDocument.class);
+        BsonDocument doc = client.getDatabase(dbName).runCommand(createCmd, BsonDocument.class);
         System.out.println(doc);
 
-
         Map kmsProviders = new HashMap();
         Map localMasterkey = new HashMap();
 
@@ -40,8 +43,8 @@ public class ViewTest {
         localMasterkey.put("key", localMasterkeyBytes);
         kmsProviders.put("local", localMasterkey);
 
-        AutoEncryptionSettings.Builder autoEncryptionSettingsBuilder = AutoEncryptionSettings.builder()
-                .keyVaultNamespace("admin.datakeys")
+        AutoEncryptionSettings.Builder autoEncryptionSettingsBuilder = fixtures.autoEncryptionSettingsBuilder()
+                .keyVaultNamespace(keyVaultNamespace)
                 .kmsProviders(kmsProviders);
 
         AutoEncryptionSettings autoEncryptionSettings = autoEncryptionSettingsBuilder.build();
@@ -50,11 +53,10 @@ public class ViewTest {
                 .codecRegistry(codecRegistry)
                 .autoEncryptionSettings(autoEncryptionSettings)
                 .build();
-        this.client_encrypted = MongoClients.create (clientSettings);
-
+        this.client_encrypted = fixtures.client(clientSettings);
 
         boolean exceptionThrown = false;
-        MongoCollection coll = this.client_encrypted.getDatabase("db")
+        MongoCollection coll = this.client_encrypted.getDatabase(dbName)
                 .getCollection("view", BsonDocument.class);
         try {
             coll.insertOne(new BsonDocument().append("encrypted", new BsonString("test")));
@@ -65,8 +67,12 @@ public class ViewTest {
         Util.doAssert(exceptionThrown);
     }
 
-
     public static void main(String[] args) {
-        new ViewTest().run();
+        Fixtures fixtures = Fixtures.fromEnv();
+        try {
+            new ViewTest("db", "admin.datakeys", fixtures).run();
+        } finally {
+            fixtures.close();
+        }
     }
 }
@@ -0,0 +1,113 @@
+import org.bson.*;
+
+import java.util.*;
+
+/*
+ * Generates JSON schemas and matching documents with any number of encrypted fields, reusing the "encrypt" specs of
+ * the local auto fields in corpus-schema.json. Deterministic and random fields are interleaved evenly at the requested
+ * ratio, each cycling through the corpus types for its algorithm.
+ *
+ * With 'depth' 0 every field is at the top level. Otherwise the fields are split into FANOUT groups, each an object
+ * field "o<i>", and so on 'depth' times, so every encrypted field sits 'depth' objects deep.
+ */
+class WideSchema {
+    private static final int FANOUT = 4;
+
+    /* A leaf field: its corpus type and the "encrypt" spec for it. */
+    private static class Field {
+        final String name;
+        final String type;
+        final BsonDocument encrypt;
+
+        Field (String name, String type, BsonDocument encrypt) {
+            this.name = name;
+            this.type = type;
+            this.encrypt = encrypt;
+        }
+    }
+
+    private final List<Field> fields = new ArrayList<>();
+    private final int depth;
+
+    /* 'fieldCount' encrypted fields, 'detPercent' of them deterministic, nested 'depth' objects deep. */
+    WideSchema (BsonDocument corpusSchema, int fieldCount, int depth, int detPercent) {
+        List<Field> det = new ArrayList<>();
+        List<Field> rand = new ArrayList<>();
+        for (Map.Entry<String, BsonValue> entry : corpusSchema.getDocument("properties").entrySet()) {
+            String[] parts = entry.getKey().split("_");
+            if (!parts[0].equals("local") || !entry.getKey().endsWith("_auto_id")) {
+                continue;
+            }
+            BsonDocument encrypt = entry.getValue().asDocument().getDocument("properties")
+                    .getDocument("value").getDocument("encrypt");
+            (parts[2].equals("det") ? det : rand).add(new Field(null, parts[1], encrypt));
+        }
+        if ((detPercent > 0 && det.isEmpty()) || (detPercent < 100 && rand.isEmpty())) {
+            throw new IllegalArgumentException("corpus schema has no local auto fields for the requested mix");
+        }
+
+        int detCount = 0, randCount = 0;
+        for (int i = 0; i < fieldCount; i++) {
+            /* Field i is deterministic when it takes the running share of deterministic fields past a whole number. */
+            boolean isDet = (long) (i + 1) * detPercent / 100 > (long) i * detPercent / 100;
+            Field pattern = isDet ? det.get(detCount++ % det.size()) : rand.get(randCount++ % rand.size());
+            fields.add(new Field("f" + i + "_" + pattern.type + (isDet ? "_det" : "_rand"), pattern.type, pattern.encrypt));
+        }
+        this.depth = depth;
+    }
+
+    int fieldCount () {
+        return fields.size();
+    }
+
+    BsonDocument schema () {
+        return new BsonDocument("bsonType", new BsonString("object"))
+                .append("properties", schemaProperties(fields, depth));
+    }
+
+    private static BsonDocument schemaProperties (List<Field> fields, int depth) {
+        BsonDocument properties = new BsonDocument();
+        if (depth == 0) {
+            for (Field field : fields) {
+                properties.append(field.name, new BsonDocument("encrypt", field.encrypt));
+            }
+            return properties;
+        }
+        List<List<Field>> groups = groups(fields);
+        for (int i = 0; i < groups.size(); i++) {
+            properties.append("o" + i, new BsonDocument("bsonType", new BsonString("object"))
+                    .append("properties", schemaProperties(groups.get(i), depth - 1)));
+        }
+        return properties;
+    }
+
+    /* A document with a random value for every field, variable-length values having 'valueSize' elements. */
+    BsonDocument document (Random random, int valueSize) {
+        return document(fields, depth, random, valueSize);
+    }
+
+    private static BsonDocument document (List<Field> fields, int depth, Random random, int valueSize) {
+        BsonDocument doc = new BsonDocument();
+        if (depth == 0) {
+            for (Field field : fields) {
+                doc.append(field.name, CorpusValues.random(field.type, random, valueSize));
+            }
+            return doc;
+        }
+        List<List<Field>> groups = groups(fields);
+        for (int i = 0; i < groups.size(); i++) {
+            doc.append("o" + i, document(groups.get(i), depth - 1, random, valueSize));
+        }
+        return doc;
+    }
+
+    /* Split 'fields' into at most FANOUT contiguous, non-empty groups of nearly equal size. */
+    private static List<List<Field>> groups (List<Field> fields) {
+        List<List<Field>> groups = new ArrayList<>();
+        int count = Math.min(FANOUT, Math.max(1, fields.size()));
+        for (int i = 0; i < count; i++) {
+            groups.add(fields.subList(i * fields.size() / count, (i + 1) * fields.size() / count));
+        }
+        return groups;
+    }
+}
@@ -0,0 +1,110 @@
+import com.mongodb.AutoEncryptionSettings;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import org.HdrHistogram.Histogram;
+import org.bson.*;
+import org.bson.codecs.BsonDocumentCodec;
+
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Measures auto encryption of documents from WideSchema while varying one axis at a time (field count, nesting depth,
+ * share of deterministic fields) with the others at their baseline. Each configuration gets a new client with a local
+ * schemaMap, inserts WIDE_WARMUP documents, then times WIDE_DOCS single-document inserts.
+ *
+ * Memory per document is the Java heap allocated by the inserting thread (HotSpot's per-thread allocation counter).
+ * libmongocrypt's native allocations and mongocryptd are not included. Time and memory are also shown per field, so a
+ * per-field cost that rises along an axis marks where growth stops being linear.
+ */
+public class WideSchemaBenchmark {
+    private static final String DB = "wide_bench";
+
+    private final BsonDocument corpusSchema = Util.bsonDocumentFromPath("./corpus/corpus-schema.json");
+    private final int docs;
+    private final int warmup;
+    private final int valueSize;
+
+    WideSchemaBenchmark (int docs, int warmup, int valueSize) {
+        this.docs = docs;
+        this.warmup = warmup;
+        this.valueSize = valueSize;
+    }
+
+    private void run (MongoClient client, String axis, int fieldCount, int depth, int detPercent) {
+        WideSchema wide = new WideSchema(corpusSchema, fieldCount, depth, detPercent);
+        String collName = "coll_" + fieldCount + "_" + depth + "_" + detPercent;
+        client.getDatabase(DB).getCollection(collName).drop();
+
+        Map<String, BsonDocument> schemaMap = new HashMap<>();
+        schemaMap.put(DB + "." + collName, wide.schema());
+        MongoClient client_encrypted = MongoClients.create(MongoClientSettings.builder()
+                .codecRegistry(Fixtures.CODEC_REGISTRY)
+                .autoEncryptionSettings(AutoEncryptionSettings.builder()
+                        .keyVaultNamespace("admin.datakeys")
+                        .kmsProviders(Util.localKmsProviders())
+                        .schemaMap(schemaMap)
+                        .build())
+                .build());
+        MongoCollection<BsonDocument> coll = client_encrypted.getDatabase(DB).getCollection(collName, BsonDocument.class);
+
+        Random random = new Random(0);
+        for (int i = 0; i < warmup; i++) {
+            coll.insertOne(wide.document(random, valueSize));
+        }
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        Histogram histogram = new Histogram(TimeUnit.SECONDS.toMicros(60), 3);
+        long allocated = 0;
+        long plaintextBytes = 0;
+        for (int i = 0; i < docs; i++) {
+            BsonDocument doc = wide.document(random, valueSize);
+            plaintextBytes += new RawBsonDocument(doc, new BsonDocumentCodec()).getByteBuffer().remaining();
+            long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+            long start = System.nanoTime();
+            coll.insertOne(doc);
+            histogram.recordValue((System.nanoTime() - start) / 1000);
+            allocated += threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        }
+        client_encrypted.close();
+
+        double meanMicros = histogram.getMean();
+        double bytesPerDoc = (double) allocated / docs;
+        System.out.println(String.format(
+                "%-6s fields %5d depth %2d det %3d%% | %8.0f KB plaintext | mean %8.0f us, p99 %8d us, %6.2f us/field | %9.0f KB/doc, %7.0f B/field",
+                axis, fieldCount, depth, detPercent, plaintextBytes / 1024.0 / docs,
+                meanMicros, histogram.getValueAtPercentile(99), meanMicros / fieldCount,
+                bytesPerDoc / 1024, bytesPerDoc / fieldCount));
+    }
+
+    private void run (int[] fieldCounts, int[] depths, int[] detPercents, int baseFields, int baseDepth, int baseDet) {
+        MongoClient client = MongoClients.create(MongoClientSettings.builder().codecRegistry(Fixtures.CODEC_REGISTRY).build());
+        Util.resetKeyVault(client, "admin.datakeys", "./corpus/corpus-key-local.json");
+        for (int fieldCount : fieldCounts) {
+            run(client, "fields", fieldCount, baseDepth, baseDet);
+        }
+        for (int depth : depths) {
+            run(client, "depth", baseFields, depth, baseDet);
+        }
+        for (int detPercent : detPercents) {
+            run(client, "det", baseFields, baseDepth, detPercent);
+        }
+        client.close();
+    }
+
+    public static void main(String[] args) {
+        new WideSchemaBenchmark(Util.intFromEnv("WIDE_DOCS", 200),
+                Util.intFromEnv("WIDE_WARMUP", 20),
+                Util.intFromEnv("WIDE_VALUE_SIZE", 8))
+                .run(Util.intsFromEnv("WIDE_FIELDS", "100,250,500,1000,2000,4000"),
+                        Util.intsFromEnv("WIDE_DEPTHS", "0,1,2,4,8"),
+                        Util.intsFromEnv("WIDE_DET_PERCENTS", "0,25,50,75,100"),
+                        Util.intFromEnv("WIDE_BASE_FIELDS", 500),
+                        Util.intFromEnv("WIDE_BASE_DEPTH", 0),
+                        Util.intFromEnv("WIDE_BASE_DET_PERCENT", 50));
+    }
+}